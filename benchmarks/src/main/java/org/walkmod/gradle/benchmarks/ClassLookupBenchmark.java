@@ -0,0 +1,129 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.walkmod.gradle.providers.ClassLoaderConfigurationProvider;
+
+/**
+ * Class and resource lookups through the class loader that load() builds. The classpath is the compiled classes of
+ * the project-sample fixture, when the tests have built them, and the jars of the benchmark itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ClassLookupBenchmark {
+
+    private ClassLoader loader;
+
+    private String[] classes;
+
+    private String[] resources;
+
+    private int next = 0;
+
+    @Setup
+    public void setUp() throws Exception {
+        List<File> classPath = new LinkedList<File>();
+        File fixtureClasses = new File(Fixtures.getFixturesDir(), "project-sample/build/classes/main");
+        if (fixtureClasses.isDirectory()) {
+            classPath.add(fixtureClasses);
+        }
+        List<String> names = new ArrayList<String>();
+        for (String path : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            File file = new File(path);
+            classPath.add(file);
+            if (file.isFile() && file.getName().endsWith(".jar")) {
+                addClassNames(file, names);
+            }
+        }
+        loader = new ClassLoaderConfigurationProvider().createClassLoader(classPath);
+        classes = new String[names.size()];
+        resources = new String[names.size()];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = names.get(i);
+            resources[i] = names.get(i).replace('.', '/') + ".class";
+        }
+        // defines every class once, so that loadClass measures the lookups of the following passes
+        for (String name : classes) {
+            try {
+                loader.loadClass(name);
+            } catch (Throwable e) {
+                // classes with missing optional dependencies
+            }
+        }
+    }
+
+    private static void addClassNames(File jar, List<String> names) throws IOException {
+        JarFile file = new JarFile(jar);
+        try {
+            Enumeration<JarEntry> entries = file.entries();
+            while (entries.hasMoreElements() && names.size() < 5000) {
+                String name = entries.nextElement().getName();
+                if (name.endsWith(".class") && !name.contains("-")) {
+                    names.add(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+                }
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private int next() {
+        next = (next + 1) % classes.length;
+        return next;
+    }
+
+    @Benchmark
+    public Class<?> loadClass() {
+        try {
+            return loader.loadClass(classes[next()]);
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    @Benchmark
+    public Class<?> loadMissingClass() {
+        try {
+            return loader.loadClass(classes[next()] + "Missing");
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    @Benchmark
+    public URL getResource() {
+        return loader.getResource(resources[next()]);
+    }
+}
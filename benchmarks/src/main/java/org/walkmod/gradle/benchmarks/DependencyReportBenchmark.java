@@ -0,0 +1,65 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.walkmod.gradle.providers.GradleUtils;
+
+/**
+ * Parsing of the dependencies of an Android project: the dependencies report and the output of the init script.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DependencyReportBenchmark {
+
+    @Param({ "150", "2000" })
+    private int dependencies;
+
+    private final GradleUtils utils = new GradleUtils();
+
+    private String report;
+
+    private String resolvedOutput;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<String> coordinates = Fixtures.getCoordinates(dependencies);
+        report = Fixtures.getDependencyReport(coordinates);
+        resolvedOutput = Fixtures.getResolvedOutput(coordinates);
+    }
+
+    @Benchmark
+    public List<String> parseReport() {
+        return utils.parseReportedCoordinates(report);
+    }
+
+    @Benchmark
+    public List<String> parseResolvedOutput() {
+        return utils.parseResolvedCoordinates(resolvedOutput);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Inputs of the benchmarks, derived from the fixture projects of the plugin tests (src/test/resources).
+ */
+public class Fixtures {
+
+    private static final Pattern COORDINATE = Pattern.compile("['\"]([\\w.\\-]+):([\\w.\\-]+):([\\w.\\-]+)['\"]");
+
+    public static File getFixturesDir() {
+        return new File(System.getProperty("walkmod.fixtures", "../src/test/resources")).getAbsoluteFile();
+    }
+
+    /**
+     * The coordinates declared by the build scripts of the fixtures.
+     */
+    public static List<String[]> getSeeds() throws IOException {
+        Collection<File> scripts = FileUtils.listFiles(getFixturesDir(), new String[] { "gradle" }, true);
+        Collection<String> seeds = new LinkedHashSet<String>();
+        for (File script : scripts) {
+            Matcher matcher = COORDINATE.matcher(FileUtils.readFileToString(script, "UTF-8"));
+            while (matcher.find()) {
+                seeds.add(matcher.group(1) + ":" + matcher.group(2) + ":" + matcher.group(3));
+            }
+        }
+        if (seeds.isEmpty()) {
+            throw new IllegalStateException("There are no dependencies in the fixtures of " + getFixturesDir()
+                    + ". Set walkmod.fixtures to the src/test/resources directory of the plugin");
+        }
+        List<String[]> result = new LinkedList<String[]>();
+        for (String seed : seeds) {
+            result.add(seed.split(":"));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the given number of distinct coordinates, as variations of the ones of the fixtures.
+     */
+    public static List<String> getCoordinates(int size) throws IOException {
+        List<String[]> seeds = getSeeds();
+        List<String> coordinates = new LinkedList<String>();
+        for (int i = 0; i < size; i++) {
+            String[] seed = seeds.get(i % seeds.size());
+            coordinates.add(seed[0] + ":" + seed[1] + "-" + i + ":" + seed[2]);
+        }
+        return coordinates;
+    }
+
+    /**
+     * Dependencies report of an Android project with the given coordinates. A third of them are transitive, and some
+     * of those are repeated or have a dynamic version, like in real reports.
+     */
+    public static String getDependencyReport(List<String> coordinates) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("------------------------------------------------------------\n");
+        sb.append("Project :app\n");
+        sb.append("------------------------------------------------------------\n\n");
+        sb.append("apk - Classpath packaged with the compiled main classes.\n");
+        sb.append("No dependencies\n\n");
+        sb.append("compile - Classpath for compiling the main sources.\n");
+        int i = 0;
+        for (String coordinate : coordinates) {
+            if (i % 3 == 0) {
+                sb.append("+--- ").append(coordinate).append("\n");
+            } else if (i % 3 == 1) {
+                String dynamic = coordinate.substring(0, coordinate.lastIndexOf(':')) + ":+ -> "
+                        + coordinate.substring(coordinate.lastIndexOf(':') + 1);
+                sb.append("|    +--- ").append(dynamic).append("\n");
+            } else {
+                sb.append("|    \\--- ").append(coordinate).append("\n");
+                sb.append("|         \\--- ").append(coordinates.get(0)).append(" (*)\n");
+            }
+            i++;
+        }
+        sb.append("\n");
+        sb.append("debugApk - Classpath packaged with the compiled debug classes.\n");
+        sb.append("No dependencies\n\n");
+        sb.append("provided - Classpath for only compiling the main sources.\n");
+        sb.append("No dependencies\n\n");
+        sb.append("releaseApk - Classpath packaged with the compiled release classes.\n");
+        sb.append("No dependencies\n\n");
+        sb.append("BUILD SUCCESSFUL\n");
+        return sb.toString();
+    }
+
+    /**
+     * Output of the walkmod init script for the given coordinates.
+     */
+    public static String getResolvedOutput(List<String> coordinates) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(":app:walkmodDependencies\n");
+        sb.append("walkmod:configuration=releaseCompileClasspath\n");
+        for (String coordinate : coordinates) {
+            sb.append("walkmod:dependency=").append(coordinate).append("\n");
+        }
+        sb.append("\nBUILD SUCCESSFUL\n");
+        return sb.toString();
+    }
+
+    /**
+     * Creates the files-2.1 tree of a Gradle user home with the given coordinates. Every fifth artifact is an aar.
+     */
+    public static void writeGradleCache(File userHome, List<String> coordinates) throws IOException {
+        File repo = new File(userHome, "caches/modules-2/files-2.1");
+        int i = 0;
+        for (String coordinate : coordinates) {
+            String[] parts = coordinate.split(":");
+            File hashDir = new File(repo, parts[0] + "/" + parts[1] + "/" + parts[2] + "/"
+                    + Integer.toHexString(coordinate.hashCode()));
+            String name = parts[1] + "-" + parts[2];
+            if (i % 5 == 0) {
+                writeAar(new File(hashDir, name + ".aar"), 16 * 1024, i);
+            } else {
+                writeJar(new File(hashDir, name + ".jar"), 16 * 1024, i);
+            }
+            i++;
+        }
+    }
+
+    public static void writeJar(File file, int size, long seed) throws IOException {
+        file.getParentFile().mkdirs();
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            zos.putNextEntry(new ZipEntry("org/walkmod/Benchmark.class"));
+            zos.write(getBytes(size, seed));
+            zos.closeEntry();
+        } finally {
+            zos.close();
+        }
+    }
+
+    /**
+     * Writes an aar with a classes.jar of about the given size, a library jar and the files that the plugin does
+     * not extract.
+     */
+    public static void writeAar(File file, int size, long seed) throws IOException {
+        file.getParentFile().mkdirs();
+        File classes = File.createTempFile("classes", ".jar");
+        try {
+            writeJar(classes, size, seed);
+            ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file));
+            try {
+                zos.putNextEntry(new ZipEntry("AndroidManifest.xml"));
+                zos.write("<manifest package=\"org.walkmod\"/>".getBytes("UTF-8"));
+                zos.closeEntry();
+                zos.putNextEntry(new ZipEntry("res/values/values.xml"));
+                zos.write(getBytes(size / 4, seed));
+                zos.closeEntry();
+                zos.putNextEntry(new ZipEntry("classes.jar"));
+                zos.write(FileUtils.readFileToByteArray(classes));
+                zos.closeEntry();
+                zos.putNextEntry(new ZipEntry("libs/"));
+                zos.closeEntry();
+                zos.putNextEntry(new ZipEntry("libs/dep.jar"));
+                zos.write(FileUtils.readFileToByteArray(classes));
+                zos.closeEntry();
+            } finally {
+                zos.close();
+            }
+        } finally {
+            classes.delete();
+        }
+    }
+
+    private static byte[] getBytes(int size, long seed) {
+        // half random, half repeated, so that the entries compress like class files
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        for (int i = size / 2; i < size; i++) {
+            bytes[i] = (byte) (i % 7);
+        }
+        return bytes;
+    }
+
+    public static File createTempDir(String prefix) throws IOException {
+        File dir = File.createTempFile(prefix, "");
+        dir.delete();
+        dir.mkdirs();
+        return dir;
+    }
+}
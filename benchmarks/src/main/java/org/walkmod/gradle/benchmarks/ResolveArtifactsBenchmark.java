@@ -0,0 +1,102 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.walkmod.gradle.providers.AarCache;
+import org.walkmod.gradle.providers.GradleCacheIndex;
+import org.walkmod.gradle.providers.GradleUtils;
+
+/**
+ * Resolution of the artifacts of an Android project against a synthetic Gradle cache. With a warm cache, the aar
+ * files are extracted in the first invocation, so the benchmark measures the lookups of the following runs. With a
+ * cold one, every invocation starts with a new index of the Gradle cache and an empty aar cache, as the first run of
+ * a process does (only the in-memory hashes of the aar files are kept).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ResolveArtifactsBenchmark {
+
+    @Param({ "150", "1000" })
+    private int dependencies;
+
+    @Param({ "1", "4" })
+    private int threads;
+
+    @Param({ "warm", "cold" })
+    private String cache;
+
+    private File workDir;
+
+    private File userHome;
+
+    private List<String> coordinates;
+
+    private GradleUtils utils;
+
+    @Setup
+    public void setUp() throws IOException {
+        workDir = Fixtures.createTempDir("walkmod-resolve");
+        userHome = new File(workDir, "gradle");
+        coordinates = Fixtures.getCoordinates(dependencies);
+        Fixtures.writeGradleCache(userHome, coordinates);
+        utils = new GradleUtils();
+        utils.setThreads(threads);
+        utils.setAarCache(new AarCache(new File(workDir, "aar")));
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() throws IOException {
+        if ("cold".equals(cache)) {
+            GradleCacheIndex.remove(getRepoDir());
+            File aarDir = new File(workDir, "aar");
+            FileUtils.deleteDirectory(aarDir);
+            utils.setAarCache(new AarCache(aarDir));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        GradleCacheIndex.remove(getRepoDir());
+        FileUtils.deleteDirectory(workDir);
+    }
+
+    @Benchmark
+    public Collection<File> resolveArtifacts() {
+        return utils.resolveArtifacts(userHome.getAbsolutePath(), coordinates);
+    }
+
+    private File getRepoDir() {
+        return new File(userHome, "caches" + File.separator + "modules-2" + File.separator + "files-2.1");
+    }
+}
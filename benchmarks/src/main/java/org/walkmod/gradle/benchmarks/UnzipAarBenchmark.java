@@ -0,0 +1,71 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.walkmod.gradle.providers.GradleUtils;
+
+/**
+ * Extraction of the jars of an aar file, for a small library and for a large one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class UnzipAarBenchmark {
+
+    @Param({ "64", "8192" })
+    private int sizeKb;
+
+    private final GradleUtils utils = new GradleUtils();
+
+    private File workDir;
+
+    private File aar;
+
+    private File destDir;
+
+    @Setup
+    public void setUp() throws IOException {
+        workDir = Fixtures.createTempDir("walkmod-unzip");
+        aar = new File(workDir, "library.aar");
+        Fixtures.writeAar(aar, sizeKb * 1024, sizeKb);
+        destDir = new File(workDir, "extracted");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(workDir);
+    }
+
+    @Benchmark
+    public File unzipAAR() throws IOException {
+        utils.unzipAAR(aar.getAbsolutePath(), destDir.getAbsolutePath());
+        return destDir;
+    }
+}
@@ -1,9 +1,13 @@
 package org.walkmod.gradle.initializers;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.gradle.tooling.GradleConnector;
 import org.gradle.tooling.ProjectConnection;
@@ -12,32 +16,64 @@ import org.gradle.tooling.model.gradle.BasicGradleProject;
 import org.gradle.tooling.model.gradle.GradleBuild;
 import org.walkmod.conf.Initializer;
 import org.walkmod.conf.ProjectConfigurationProvider;
+import org.walkmod.gradle.providers.ParallelTasks;
 
 public class GradleInitializer implements Initializer {
 
+	private int threads = ParallelTasks.getDefaultThreads();
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
 	@Override
 	public void execute(ProjectConfigurationProvider provider) throws Exception {
 		execute(provider, null);
 	}
 
+	/**
+	 * Creates the configuration of the project and its modules. The Gradle build model is fetched once, and the
+	 * configurations are written concurrently: every project has its own provider and configuration file.
+	 */
 	public void execute(ProjectConfigurationProvider provider, BasicGradleProject parent) throws Exception {
 		DomainObjectSet<? extends BasicGradleProject> subprojects = null;
 		File parentDir = provider.getConfigurationFile().getCanonicalFile().getParentFile();
 
 		if (parent == null) {
-			GradleConnector connector = GradleConnector.newConnector();
-
-			connector.forProjectDirectory(parentDir);
-			ProjectConnection connection = connector.connect();
-
-			GradleBuild settings = connection.getModel(GradleBuild.class);
-			subprojects = settings.getProjects();
+			subprojects = getBuild(parentDir).getProjects();
 		} else {
 			subprojects = parent.getChildren();
 		}
+		Map<String, Callable<Void>> tasks = new LinkedHashMap<String, Callable<Void>>();
+		addTasks(provider, subprojects, tasks);
+		ParallelTasks.invokeAll(new ArrayList<Callable<Void>>(tasks.values()), threads);
+	}
+
+	/**
+	 * Adds the task that writes the configuration of the provider, and the ones of its modules. Nested projects are
+	 * listed by the root too, so the configuration of each file is only written once.
+	 */
+	private void addTasks(final ProjectConfigurationProvider provider,
+			DomainObjectSet<? extends BasicGradleProject> subprojects, Map<String, Callable<Void>> tasks)
+			throws Exception {
+		File configFile = provider.getConfigurationFile().getCanonicalFile();
+		if (tasks.containsKey(configFile.getPath())) {
+			return;
+		}
+		final List<String> modules = new LinkedList<String>();
+		tasks.put(configFile.getPath(), new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				if (!modules.isEmpty()) {
+					provider.addModules(modules);
+				} else {
+					provider.createConfig();
+				}
+				return null;
+			}
+		});
 		Iterator<? extends BasicGradleProject> it = subprojects.iterator();
-		String currentDir = parentDir.getCanonicalPath();
-		List<String> modules = new LinkedList<String>();
+		String currentDir = configFile.getParentFile().getCanonicalPath();
 		while (it.hasNext()) {
 			BasicGradleProject current = it.next();
 			File projectDir = current.getProjectDirectory().getCanonicalFile();
@@ -46,15 +82,29 @@ public class GradleInitializer implements Initializer {
 				ProjectConfigurationProvider moduleCfgProvider = provider
 						.clone(new File(projectDir, "walkmod." + provider.getFileExtension()));
 
-				execute(moduleCfgProvider, current);
+				addTasks(moduleCfgProvider, current.getChildren(), tasks);
 			}
 
 		}
-		if (!modules.isEmpty()) {
-			provider.addModules(modules);
-		} else {
-			provider.createConfig();
+	}
+
+	/**
+	 * Fetches the model of the build, closing the connection afterwards.
+	 */
+	GradleBuild getBuild(File projectDir) {
+		ProjectConnection connection = connect(projectDir);
+		try {
+			return connection.getModel(GradleBuild.class);
+		} finally {
+			connection.close();
 		}
 	}
 
+	ProjectConnection connect(File projectDir) {
+		GradleConnector connector = GradleConnector.newConnector();
+
+		connector.forProjectDirectory(projectDir);
+		return connector.connect();
+	}
+
 }
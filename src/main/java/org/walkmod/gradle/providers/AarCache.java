@@ -0,0 +1,154 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.providers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Content-addressed directory of extracted aar files, shared by every walkmod process of the machine. Each aar is
+ * extracted into a temporary directory, under an exclusive file lock, and then renamed to the SHA-1 of its content,
+ * so readers never see a partial extraction.
+ */
+public class AarCache {
+
+    private static final int MAX_HASHES = 4096;
+
+    /**
+     * Hashes of the last aars, by path: the size and the modification time tell if they are still valid.
+     */
+    private static final Map<String, Hash> HASHES = new LinkedHashMap<String, Hash>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Hash> eldest) {
+            return size() > MAX_HASHES;
+        }
+    };
+
+    /**
+     * File locks are held by the whole JVM, so the threads of this process are serialized before with a lock of
+     * this fixed set, chosen by the hash of the aar.
+     */
+    private static final Object[] LOCKS = new Object[64];
+
+    static {
+        for (int i = 0; i < LOCKS.length; i++) {
+            LOCKS[i] = new Object();
+        }
+    }
+
+    private final File cacheDir;
+
+    private GradleMetrics metrics = new GradleMetrics();
+
+    public AarCache(File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    public void setMetrics(GradleMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    /**
+     * Returns the directory that contains the classes.jar and the libs of the given aar, extracting them if needed.
+     */
+    public File extract(File aar) throws IOException {
+        String hash = getHash(aar);
+        File target = new File(cacheDir, hash);
+        if (target.isDirectory()) {
+            metrics.add("aarCacheHits", 1);
+            return target;
+        }
+        cacheDir.mkdirs();
+        Object lock = LOCKS[(hash.hashCode() & 0x7fffffff) % LOCKS.length];
+        synchronized (lock) {
+            RandomAccessFile lockFile = new RandomAccessFile(new File(cacheDir, hash + ".lock"), "rw");
+            try {
+                FileChannel channel = lockFile.getChannel();
+                FileLock fileLock = channel.lock();
+                try {
+                    if (!target.isDirectory()) {
+                        File tmp = new File(cacheDir, hash + ".tmp-" + UUID.randomUUID());
+                        try {
+                            long bytes = new GradleUtils().unzipAAR(aar.getAbsolutePath(), tmp.getAbsolutePath());
+                            if (!tmp.renameTo(target) && !target.isDirectory()) {
+                                throw new IOException("Error moving " + tmp.getAbsolutePath() + " to "
+                                        + target.getAbsolutePath());
+                            }
+                            metrics.add("aarsExtracted", 1);
+                            metrics.add("extractedBytes", bytes);
+                        } finally {
+                            if (tmp.exists()) {
+                                FileUtils.deleteQuietly(tmp);
+                            }
+                        }
+                    }
+                } finally {
+                    fileLock.release();
+                }
+            } finally {
+                lockFile.close();
+            }
+        }
+        return target;
+    }
+
+    private String getHash(File aar) {
+        String path = aar.getAbsolutePath();
+        long length = aar.length();
+        long lastModified = aar.lastModified();
+        synchronized (HASHES) {
+            Hash hash = HASHES.get(path);
+            if (hash != null && hash.length == length && hash.lastModified == lastModified) {
+                return hash.value;
+            }
+        }
+        String value = new Fingerprint().addContent(aar).getValue();
+        synchronized (HASHES) {
+            HASHES.put(path, new Hash(length, lastModified, value));
+        }
+        return value;
+    }
+
+    private static class Hash {
+
+        private final long length;
+
+        private final long lastModified;
+
+        private final String value;
+
+        public Hash(long length, long lastModified, String value) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.value = value;
+        }
+    }
+}
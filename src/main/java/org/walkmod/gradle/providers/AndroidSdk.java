@@ -0,0 +1,209 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.providers;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.walkmod.conf.ConfigurationException;
+
+/**
+ * Metadata of the Android SDK shared by the whole process. The installed platforms are listed again when the
+ * platforms directory changes, and the SDK versions of the projects are remembered while their build.gradle does not
+ * change. Artifacts of the extras are looked up directly in their m2 repository, so newly installed ones are found.
+ */
+public class AndroidSdk {
+
+    private static final Pattern NUMBER = Pattern.compile("[0-9]+");
+
+    private static final String MIN_SDK_VERSION = "minSdkVersion ";
+
+    private static final String COMPILE_SDK_VERSION = "compileSdkVersion ";
+
+    private static final ConcurrentMap<String, AndroidSdk> SDKS = new ConcurrentHashMap<String, AndroidSdk>();
+
+    private static final ConcurrentMap<String, SdkVersion> SDK_VERSIONS = new ConcurrentHashMap<String, SdkVersion>();
+
+    private final File homeDir;
+
+    private TreeMap<Integer, File> platforms = null;
+
+    private long platformsModified = 0L;
+
+    public AndroidSdk(File homeDir) {
+        this.homeDir = homeDir;
+    }
+
+    /**
+     * Returns the SDK of ANDROID_HOME, or null if it is not set.
+     */
+    public static AndroidSdk get() {
+        String androidHome = System.getenv("ANDROID_HOME");
+        if (androidHome == null || "".equals(androidHome)) {
+            return null;
+        }
+        AndroidSdk sdk = SDKS.get(androidHome);
+        if (sdk == null) {
+            AndroidSdk newSdk = new AndroidSdk(new File(androidHome));
+            sdk = SDKS.putIfAbsent(androidHome, newSdk);
+            if (sdk == null) {
+                sdk = newSdk;
+            }
+        }
+        return sdk;
+    }
+
+    public File getHomeDir() {
+        return homeDir;
+    }
+
+    /**
+     * Returns the last number of the given value, as in compileSdkVersion 'android-23'.
+     */
+    public static int parseVersion(String line) {
+        Matcher m = NUMBER.matcher(line);
+        Integer value = null;
+        while (m.find()) {
+            value = Integer.parseInt(m.group());
+        }
+        if (value == null) {
+            throw new ConfigurationException(
+                    "Invalid compileSdkVersion (" + line + "). Please provide an integer value");
+        }
+        return value;
+    }
+
+    /**
+     * Returns the compileSdkVersion of the build.gradle of the project, or its minSdkVersion if there is none.
+     */
+    public static Integer getCompileSdkVersion(File projectDir) {
+        File cfg = new File(projectDir, "build.gradle");
+        String key = cfg.getAbsolutePath();
+        long length = cfg.length();
+        long lastModified = cfg.lastModified();
+        SdkVersion cached = SDK_VERSIONS.get(key);
+        if (cached != null && cached.length == length && cached.lastModified == lastModified) {
+            return cached.version;
+        }
+        Integer version = null;
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(cfg));
+            try {
+                String line = reader.readLine();
+                while (line != null) {
+                    int index = line.indexOf(MIN_SDK_VERSION);
+                    if (index != -1) {
+                        version = parseVersion(line.substring(index + MIN_SDK_VERSION.length()).trim());
+                    } else {
+                        index = line.indexOf(COMPILE_SDK_VERSION);
+                        if (index != -1) {
+                            version = parseVersion(line.substring(index + COMPILE_SDK_VERSION.length()).trim());
+                            break;
+                        }
+                    }
+                    line = reader.readLine();
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            throw new ConfigurationException("Error reading the build.gradle", e.getCause());
+        }
+        if (version != null) {
+            SDK_VERSIONS.put(key, new SdkVersion(length, lastModified, version));
+        } else {
+            SDK_VERSIONS.remove(key);
+        }
+        return version;
+    }
+
+    /**
+     * Returns the android.jar of the oldest installed platform that is equal or newer than the given version.
+     */
+    public File getAndroidJar(int version) {
+        Map.Entry<Integer, File> platform = getPlatforms().ceilingEntry(version);
+        if (platform == null) {
+            return null;
+        }
+        return new File(platform.getValue(), "android.jar");
+    }
+
+    private synchronized TreeMap<Integer, File> getPlatforms() {
+        File dir = new File(homeDir, "platforms");
+        long lastModified = dir.lastModified();
+        if (platforms == null || platformsModified != lastModified) {
+            platforms = new TreeMap<Integer, File>();
+            platformsModified = lastModified;
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    String fileName = file.getName();
+                    if (fileName.startsWith("android-")) {
+                        try {
+                            platforms.put(Integer.parseInt(fileName.substring("android-".length())), file);
+                        } catch (NumberFormatException e) {
+                            // preview platforms, such as android-N
+                        }
+                    }
+                }
+            }
+        }
+        return platforms;
+    }
+
+    /**
+     * Returns the aar, or else the jar, of the given artifact in the m2 repository of the extras: the Google one for
+     * Google groups and the Android one for the rest.
+     */
+    public File findArtifact(String groupId, String artifactId, String version) {
+        File repo = new File(homeDir, groupId.contains("google") ? "extras/google/m2repository"
+                : "extras/android/m2repository");
+        File dir = new File(repo, groupId.replace('.', '/') + "/" + artifactId + "/" + version);
+        String base = artifactId + "-" + version;
+        File aar = new File(dir, base + ".aar");
+        if (aar.isFile()) {
+            return aar;
+        }
+        File jar = new File(dir, base + ".jar");
+        if (jar.isFile()) {
+            return jar;
+        }
+        return null;
+    }
+
+    private static class SdkVersion {
+
+        private final long length;
+
+        private final long lastModified;
+
+        private final Integer version;
+
+        public SdkVersion(long length, long lastModified, Integer version) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.version = version;
+        }
+    }
+}
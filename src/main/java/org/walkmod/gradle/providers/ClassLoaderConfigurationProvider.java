@@ -17,24 +17,29 @@ package org.walkmod.gradle.providers;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 import org.apache.commons.lang.StringUtils;
+import org.gradle.tooling.BuildActionExecuter;
 import org.gradle.tooling.BuildLauncher;
 import org.gradle.tooling.GradleConnector;
 import org.gradle.tooling.ModelBuilder;
 import org.gradle.tooling.ProjectConnection;
-import org.gradle.tooling.model.DomainObjectSet;
-import org.gradle.tooling.model.ExternalDependency;
+import org.gradle.tooling.UnsupportedVersionException;
 import org.gradle.tooling.model.GradleProject;
+import org.gradle.tooling.model.GradleTask;
 import org.gradle.tooling.model.eclipse.EclipseProject;
-import org.gradle.tooling.model.eclipse.EclipseProjectDependency;
 import org.walkmod.conf.ConfigurationException;
 import org.walkmod.conf.ConfigurationProvider;
 import org.walkmod.conf.entities.Configuration;
@@ -66,6 +71,50 @@ public class ClassLoaderConfigurationProvider implements ConfigurationProvider {
 
     private JSONArray localLibs = null;
 
+    private boolean classPathCache = true;
+
+    private boolean refreshCache = false;
+
+    private String cacheDir = null;
+
+    private GradleSession session = null;
+
+    private int resolverThreads = ParallelTasks.getDefaultThreads();
+
+    private ParallelTasks parallelTasks = null;
+
+    private boolean structuredDependencies = true;
+
+    private boolean forceCompile = false;
+
+    private boolean buildAction = true;
+
+    private boolean watch = false;
+
+    private long watchDelay = 500;
+
+    private String exportSnapshot = null;
+
+    private String snapshot = null;
+
+    private volatile GradleMetrics metrics = new GradleMetrics();
+
+    private String metricsReport = null;
+
+    private boolean minimalCompile = false;
+
+    private boolean lazy = false;
+
+    private boolean jarIndex = true;
+
+    private boolean sharedClassLoader = false;
+
+    private boolean poolClassLoaders = false;
+
+    private int poolSize = ClassLoaderPool.DEFAULT_MAX_LOADERS;
+
+    private long poolMemory = ClassLoaderPool.DEFAULT_MAX_MEMORY / (1024 * 1024);
+
     public ClassLoaderConfigurationProvider() {
     }
 
@@ -109,6 +158,152 @@ public class ClassLoaderConfigurationProvider implements ConfigurationProvider {
         this.gradleVersion = gradleVersion;
     }
 
+    public void setClassPathCache(boolean classPathCache) {
+        this.classPathCache = classPathCache;
+    }
+
+    public void setRefreshCache(boolean refreshCache) {
+        this.refreshCache = refreshCache;
+    }
+
+    public void setCacheDir(String cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    public void setResolverThreads(int resolverThreads) {
+        this.resolverThreads = resolverThreads;
+    }
+
+    /**
+     * Pool that resolves the modules and the artifacts. If it is not set, a pool of resolverThreads is created for
+     * each resolution and shared by all of its modules.
+     */
+    public void setParallelTasks(ParallelTasks parallelTasks) {
+        this.parallelTasks = parallelTasks;
+    }
+
+    public void setStructuredDependencies(boolean structuredDependencies) {
+        this.structuredDependencies = structuredDependencies;
+    }
+
+    public void setForceCompile(boolean forceCompile) {
+        this.forceCompile = forceCompile;
+    }
+
+    /**
+     * Fetches the models of all the modules in a single round-trip with a build action (Gradle 1.8 or later), instead
+     * of loading the Eclipse model of the project.
+     */
+    public void setBuildAction(boolean buildAction) {
+        this.buildAction = buildAction;
+    }
+
+    /**
+     * Keeps the connection and the class loader alive for the next runs in the same process, and refreshes the class
+     * loader when the sources or the build scripts change.
+     */
+    public void setWatch(boolean watch) {
+        this.watch = watch;
+    }
+
+    public void setWatchDelay(long watchDelay) {
+        this.watchDelay = watchDelay;
+    }
+
+    /**
+     * File where the resolved classpath is written after loading the project, to be loaded elsewhere with
+     * {@link #setSnapshot(String)}.
+     */
+    public void setExportSnapshot(String exportSnapshot) {
+        this.exportSnapshot = exportSnapshot;
+    }
+
+    /**
+     * Loads the classpath from a snapshot written by {@link #setExportSnapshot(String)}, without compiling or
+     * connecting to Gradle.
+     */
+    public void setSnapshot(String snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public void setMetrics(GradleMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public GradleMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * JSON file where the metrics of the project resolution are written after loading it.
+     */
+    public void setMetricsReport(String metricsReport) {
+        this.metricsReport = metricsReport;
+    }
+
+    /**
+     * Runs only the tasks that compile the classes of the project and its subprojects (classes, or
+     * compile[Flavor]ReleaseJavaWithJavac for Android), instead of the configured task.
+     */
+    public void setMinimalCompile(boolean minimalCompile) {
+        this.minimalCompile = minimalCompile;
+    }
+
+    /**
+     * Sets a class loader that compiles and resolves the project on the first lookup, instead of during the load.
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    /**
+     * Reads the jars of the classpath through memory-mapped indexes of their files, kept in the cache directory
+     * between runs, so the jars are only opened when a class or a resource of them is read.
+     */
+    public void setJarIndex(boolean jarIndex) {
+        this.jarIndex = jarIndex;
+    }
+
+    /**
+     * Loads the jars of the classpath with class loaders shared by the modules with the same jars, and only the
+     * class directories of the module with its own one. Packages split between the directories and the jars are
+     * then defined by different loaders, so their package-private members are not accessible from each other.
+     */
+    public void setSharedClassLoader(boolean sharedClassLoader) {
+        this.sharedClassLoader = sharedClassLoader;
+    }
+
+    /**
+     * Reuses the class loader of the configurations with the same classpath and compiled classes. Its handle is set
+     * as the classLoaderHandle parameter, and should be closed once the configuration is not used anymore.
+     */
+    public void setPoolClassLoaders(boolean poolClassLoaders) {
+        this.poolClassLoaders = poolClassLoaders;
+    }
+
+    /**
+     * Maximum number of pooled class loaders. The idle ones above it are closed.
+     */
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * Maximum memory, in megabytes, of the pooled class loaders, estimated as the bytecode of the classes they have
+     * defined. The idle ones above it are closed.
+     */
+    public void setPoolMemory(long poolMemory) {
+        this.poolMemory = poolMemory;
+    }
+
+    public void setSession(GradleSession session) {
+        this.session = session;
+    }
+
+    public GradleSession getSession() {
+        return session;
+    }
+
     @Override
     public void init(Configuration configuration) {
         this.configuration = configuration;
@@ -151,13 +346,67 @@ public class ClassLoaderConfigurationProvider implements ConfigurationProvider {
         return connector;
     }
 
-    public void compile() throws Exception {
+    private boolean openSession() {
+        if (session == null) {
+            session = new GradleSession();
+            return true;
+        }
+        return false;
+    }
 
-        ProjectConnection connection = getConnector().connect();
+    private void closeSession() {
         try {
+            session.close();
+        } finally {
+            session = null;
+        }
+    }
+
+    private ProjectConnection getConnection() throws ConfigurationException {
+        GradleConnector connector = getConnector();
+        long start = metrics.start();
+        try {
+            return session.connect(new File(workingDirectory), connector);
+        } finally {
+            metrics.stop(GradleMetrics.CONNECT, start);
+        }
+    }
+
+    public CompileState getCompileState() throws ConfigurationException {
+        getConnector();
+        File projectDir = new File(workingDirectory).getAbsoluteFile();
+        CompileState state = new CompileState(new File(getCacheDir(), Fingerprint.of(projectDir.getPath()) + ".compile"));
+        return state.addOutput(buildDir);
+    }
+
+    private String getCompileKey() {
+        Fingerprint key = new Fingerprint();
+        key.add(minimalCompile ? "<minimal>" : task).add(flavor).add(gradleVersion).add(installationDir);
+        key.add(buildFile != null ? buildFile.getAbsolutePath() : null);
+        return key.getValue();
+    }
+
+    public void compile() throws Exception {
+        CompileState state = getCompileState();
+        String key = getCompileKey();
+        File projectDir = new File(workingDirectory);
+        if (!forceCompile && state.isUpToDate(key, projectDir)) {
+            metrics.add("compileSkipped", 1);
+            return;
+        }
+        boolean ownsSession = openSession();
+        long start = metrics.start();
+        try {
+            ProjectConnection connection = getConnection();
             // Configure the build
             BuildLauncher launcher = connection.newBuild();
-            if (flavor != null) {
+            List<String> compileTasks = null;
+            if (minimalCompile) {
+                compileTasks = getCompileTasks(connection);
+            }
+            if (compileTasks != null && !compileTasks.isEmpty()) {
+                launcher.forTasks(compileTasks.toArray(new String[compileTasks.size()]));
+            } else if (flavor != null) {
                 launcher.forTasks(task + StringUtils.capitalize(flavor));
             } else {
                 launcher.forTasks(task);
@@ -170,197 +419,615 @@ public class ClassLoaderConfigurationProvider implements ConfigurationProvider {
 
             // Run the build
             launcher.run();
+            state.update(key, projectDir);
         } finally {
+            metrics.stop(GradleMetrics.COMPILE, start);
             // Clean up
-            connection.close();
+            if (ownsSession) {
+                closeSession();
+            }
         }
     }
 
+    /**
+     * Returns the paths of the tasks that compile the classes of the project and its subprojects, chosen from the
+     * tasks each of them declares.
+     */
+    private List<String> getCompileTasks(ProjectConnection connection) {
+        ModelBuilder<GradleProject> modelBuilder = connection.model(GradleProject.class);
+        if (buildFile != null) {
+            modelBuilder.withArguments("-b", buildFile.getAbsolutePath());
+        }
+        String variant = (flavor != null ? StringUtils.capitalize(flavor) : "") + "Release";
+        String[] candidates = { "compile" + variant + "JavaWithJavac", "compile" + variant + "Java", "classes" };
+        List<String> tasks = new LinkedList<String>();
+        addCompileTasks(modelBuilder.get(), candidates, tasks);
+        return tasks;
+    }
+
+    private void addCompileTasks(GradleProject project, String[] candidates, List<String> tasks) {
+        String selected = null;
+        for (int i = 0; i < candidates.length && selected == null; i++) {
+            for (GradleTask task : project.getTasks()) {
+                if (candidates[i].equals(task.getName())) {
+                    selected = task.getPath();
+                    break;
+                }
+            }
+        }
+        if (selected != null) {
+            tasks.add(selected);
+        }
+        for (GradleProject child : project.getChildren()) {
+            addCompileTasks(child, candidates, tasks);
+        }
+    }
+
+    public File getCacheDir() {
+        if (cacheDir != null) {
+            return new File(cacheDir);
+        }
+        return new File(System.getProperty("user.home"), ".walkmod" + File.separator + "gradle");
+    }
+
+    public ClassPathCache getClassPathCache() throws ConfigurationException {
+        getConnector();
+        File projectDir = new File(workingDirectory).getAbsoluteFile();
+        return new ClassPathCache(new File(getCacheDir(), Fingerprint.of(projectDir.getPath()) + ".classpath"));
+    }
+
+    public void invalidateClassPathCache() throws ConfigurationException {
+        getClassPathCache().invalidate();
+    }
+
+    private String getClassPathCacheKey() {
+        Fingerprint key = new Fingerprint();
+        key.add(new File(workingDirectory).getAbsolutePath());
+        if (buildFile != null) {
+            key.addFile(buildFile);
+        } else {
+            key.add((String) null);
+        }
+        key.add(flavor).add(buildDir).add(gradleVersion).add(installationDir).add(userHomeDir);
+        key.add(localLibs != null ? localLibs.toString() : null);
+        if (localLibs != null) {
+            // the jars of the directories are part of the classpath
+            Iterator<Object> it = localLibs.iterator();
+            while (it.hasNext()) {
+                String[] names = new File(it.next().toString()).list();
+                if (names != null) {
+                    Arrays.sort(names);
+                    for (String name : names) {
+                        key.add(name);
+                    }
+                }
+            }
+        }
+        return key.getValue();
+    }
+
     public List<File> getClassPathFiles() throws ConfigurationException {
-        ProjectConnection connection = getConnector().connect();
-        LinkedHashSet<File> classPathFiles = new LinkedHashSet<File>();
+        if (!classPathCache) {
+            return resolveClassPathFiles(null);
+        }
+        ClassPathCache cache = getClassPathCache();
+        String key = getClassPathCacheKey();
+        if (!refreshCache) {
+            List<File> cached = cache.load(key);
+            if (cached != null) {
+                metrics.add("classPathCacheHits", 1);
+                return cached;
+            }
+        }
+        List<File> projectDirs = new LinkedList<File>();
+        List<File> result = resolveClassPathFiles(projectDirs);
         try {
-            // Load the Eclipse model for the project
-            final ModelBuilder<EclipseProject> modelBuilder = connection.model(EclipseProject.class);
-            EclipseProject project = null;
-             GradleProject gradleProject = null;
-            if (buildFile != null) {
-                modelBuilder.withArguments("-b", buildFile.getAbsolutePath());
-
+            cache.store(key, projectDirs, result);
+        } catch (IOException e) {
+            throw new ConfigurationException("Error writing the classpath cache", e);
+        }
+        return result;
+    }
 
+    private List<File> resolveClassPathFiles(List<File> projectDirs) throws ConfigurationException {
+        boolean ownsSession = openSession();
+        boolean ownsParallelTasks = parallelTasks == null;
+        if (ownsParallelTasks) {
+            parallelTasks = new ParallelTasks(resolverThreads);
+        }
+        try {
+            ProjectConnection connection = getConnection();
+            Map<String, ProjectModel> models = null;
+            long start = metrics.start();
+            try {
+                if (buildAction) {
+                    models = fetchModels(connection);
+                }
+                if (models == null) {
+                    models = loadModels(connection);
+                }
+            } finally {
+                metrics.stop(GradleMetrics.MODELS, start);
+            }
+            metrics.add("modules", models.size());
+            List<File> buildDirs = new LinkedList<File>();
+            for (ProjectModel model : models.values()) {
+                if (projectDirs != null) {
+                    projectDirs.add(model.getProjectDirectory());
+                }
+                if (model.getBuildDirectory() != null) {
+                    buildDirs.add(model.getBuildDirectory());
+                }
             }
+            try {
+                getCompileState().setBuildDirs(buildDirs);
+            } catch (IOException e) {
+                System.err.println("Error writing the build directories of " + workingDirectory + ": " + e.getMessage());
+            }
+            return resolveModules(connection, models);
+        } finally {
+            if (ownsParallelTasks) {
+                parallelTasks.close();
+                parallelTasks = null;
+            }
+            if (ownsSession) {
+                closeSession();
+            }
+        }
+    }
 
+    /**
+     * Fetches the models of every project of the build in a single round-trip, or returns null if the Gradle
+     * version does not support build actions. Build failures are thrown.
+     */
+    private Map<String, ProjectModel> fetchModels(ProjectConnection connection) {
+        BuildActionExecuter<Map<String, ProjectModel>> executer = connection.action(new ClassPathAction());
+        if (buildFile != null) {
+            executer.withArguments("-b", buildFile.getAbsolutePath());
+        }
+        try {
+            return executer.run();
+        } catch (UnsupportedVersionException e) {
+            return null;
+        }
+    }
+
+    private Map<String, ProjectModel> loadModels(ProjectConnection connection) throws ConfigurationException {
+        // Load the Eclipse model for the project
+        final ModelBuilder<EclipseProject> modelBuilder = connection.model(EclipseProject.class);
+        if (buildFile != null) {
+            modelBuilder.withArguments("-b", buildFile.getAbsolutePath());
+        }
+        try {
             try {
-                project =  project = modelBuilder.get();
-                gradleProject = project.getGradleProject();
-            }catch(GradleConnectionException e){
-                gradleProject = connection.getModel(GradleProject.class);
+                return ProjectModel.collect(modelBuilder.get());
+            } catch (GradleConnectionException e) {
+                return ProjectModel.collect(connection.getModel(GradleProject.class));
+            }
+        } catch (IOException e) {
+            throw new ConfigurationException("Error resolving the project directories", e);
+        }
+    }
 
+    /**
+     * Resolves the project and the modules it depends on. The module graph is built first, so that every module is
+     * visited once even if it is reachable through several paths, and then the modules are resolved in parallel. The
+     * first model is the project the connection points to.
+     */
+    private List<File> resolveModules(final ProjectConnection connection, Map<String, ProjectModel> models)
+            throws ConfigurationException {
+        ProjectModel project = models.values().iterator().next();
+        ModuleNode root = new ModuleNode(this, null, project);
+        Map<String, ModuleNode> nodes = new LinkedHashMap<String, ModuleNode>();
+        nodes.put(getCanonicalPath(project.getProjectDirectory()), root);
+        LinkedList<ModuleNode> pending = new LinkedList<ModuleNode>();
+        pending.add(root);
+        while (!pending.isEmpty()) {
+            ModuleNode node = pending.removeFirst();
+            if (node.model == null || node.provider.isAndroid(node.model)) {
+                continue;
             }
+            for (File moduleDir : node.model.getProjectDependencies()) {
+                String key = getCanonicalPath(moduleDir);
+                ModuleNode child = nodes.get(key);
+                if (child == null) {
+                    child = createModuleNode(models.get(key), moduleDir);
+                    nodes.put(key, child);
+                    pending.add(child);
+                }
+                node.dependencies.add(child);
+            }
+        }
 
-            File gradleBuildDir = gradleProject.getBuildDirectory();
-            File projectDir = gradleProject.getProjectDirectory();
-            File classesDir = new File(gradleBuildDir, buildDir);
-            boolean isAndroid = false;
+        List<Callable<List<File>>> tasks = new LinkedList<Callable<List<File>>>();
+        for (final ModuleNode node : nodes.values()) {
+            tasks.add(new Callable<List<File>>() {
+                @Override
+                public List<File> call() throws Exception {
+                    return node.resolve(connection);
+                }
+            });
+        }
+        List<List<File>> results = parallelTasks.invokeAll(tasks);
+        Iterator<List<File>> it = results.iterator();
+        for (ModuleNode node : nodes.values()) {
+            node.classPath = it.next();
+        }
 
-            if (classesDir.exists()) {
-                File[] files = classesDir.listFiles();
-                if (files != null) {
-                    for (File file : files) {
-                        classPathFiles.add(file);
-                    }
+        LinkedHashSet<File> classPathFiles = new LinkedHashSet<File>();
+        root.addClassPath(classPathFiles, new HashSet<ModuleNode>());
+        return new LinkedList<File>(classPathFiles);
+    }
+
+    private ModuleNode createModuleNode(ProjectModel module, File moduleDir) {
+        ClassLoaderConfigurationProvider prov = new ClassLoaderConfigurationProvider();
+        prov.setWorkingDirectory(moduleDir.getAbsolutePath());
+        prov.setGradleVersion(gradleVersion);
+        prov.setInstallationDir(installationDir);
+        prov.setUserHomeDir(userHomeDir);
+        prov.setSession(session);
+        prov.setResolverThreads(resolverThreads);
+        prov.setParallelTasks(parallelTasks);
+        prov.setStructuredDependencies(structuredDependencies);
+        prov.setBuildAction(buildAction);
+        prov.setMetrics(metrics);
+        prov.setClassPathCache(classPathCache);
+        prov.setRefreshCache(refreshCache);
+        prov.setCacheDir(cacheDir);
+        if (module != null) {
+            // the module belongs to the same build: its model is already here
+            return new ModuleNode(prov, module.getPath(), module);
+        }
+        return new ModuleNode(prov, null, null);
+    }
+
+    private String getCanonicalPath(File file) throws ConfigurationException {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            throw new ConfigurationException("Error resolving the project directory " + file, e);
+        }
+    }
+
+    private boolean isAndroid(ProjectModel model) {
+        return !new File(model.getBuildDirectory(), buildDir).exists();
+    }
+
+    /**
+     * Returns the classpath of a project, without its modules, whose models have been already fetched through the
+     * given connection. The projectPath is null for the project the connection points to, or the gradle path of one
+     * of its modules.
+     */
+    private List<File> resolveProjectClassPath(ProjectConnection connection, String projectPath, ProjectModel model)
+            throws ConfigurationException {
+        Collection<File> classPathFiles = new LinkedHashSet<File>();
+        File gradleBuildDir = model.getBuildDirectory();
+        File projectDir = model.getProjectDirectory();
+        File classesDir = new File(gradleBuildDir, buildDir);
+        boolean isAndroid = isAndroid(model);
+
+        if (!isAndroid) {
+            File[] files = classesDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    classPathFiles.add(file);
                 }
+            }
+        } else {
+            if (flavor == null) {
+                classesDir = new File(gradleBuildDir, "intermediates/classes/release/");
+                if (!classesDir.exists()) {
+                    throw new ConfigurationException(
+                            "Please, select one flavour with the command: walkmod add-provider -Dflavor=\"YOUR_FLAVOR\" gradle");
+                }
+                classPathFiles.add(classesDir);
             } else {
-                isAndroid = true;
-                if (flavor == null) {
-                    classesDir = new File(gradleBuildDir, "intermediates/classes/release/");
-                    if (!classesDir.exists()) {
-                        throw new ConfigurationException(
-                                "Please, select one flavour with the command: walkmod add-provider -Dflavor=\"YOUR_FLAVOR\" gradle");
-                    }
-                    classPathFiles.add(classesDir);
-                } else {
 
-                    classesDir = new File(gradleBuildDir, "intermediates/classes/" + flavor + "/release/");
-                    if (!classesDir.exists()) {
-                        throw new ConfigurationException("The flavor :[" + flavor + "] does not exist in ["
-                                + classesDir.getAbsolutePath() + "]. Please, select a valid one");
-                    }
-                    classPathFiles.add(classesDir);
+                classesDir = new File(gradleBuildDir, "intermediates/classes/" + flavor + "/release/");
+                if (!classesDir.exists()) {
+                    throw new ConfigurationException("The flavor :[" + flavor + "] does not exist in ["
+                            + classesDir.getAbsolutePath() + "]. Please, select a valid one");
                 }
+                classPathFiles.add(classesDir);
+            }
+        }
+
+        if (isAndroid) {
+            GradleUtils utils = new GradleUtils();
+            utils.setStructuredDependencies(structuredDependencies);
+            utils.setParallelTasks(parallelTasks);
+            utils.setMetrics(metrics);
+            AarCache aarCache = new AarCache(new File(getCacheDir(), "aar"));
+            aarCache.setMetrics(metrics);
+            utils.setAarCache(aarCache);
+            utils.setCacheIndexDir(new File(getCacheDir(), "files-2.1"));
+            long start = metrics.start();
+            List<String> coordinates = null;
+            try {
+                coordinates = utils.getDepsCoordinates(connection, buildFile, projectPath, flavor);
+            } finally {
+                metrics.stop(GradleMetrics.DEPENDENCIES, start);
             }
 
-            if (isAndroid) {
-                GradleUtils utils = new GradleUtils();
-                List<String> coordinates = utils.getDepsCoordinates(connection, buildFile);
-              
-                Integer version = utils.getCompileAndroidSDKVersion(projectDir);
+            Integer version = utils.getCompileAndroidSDKVersion(projectDir);
 
-                if (version != null) {
-                    File jar = utils.getAndroidJar(version);
-                    if (jar != null && jar.exists()) {
-                        classPathFiles.add(jar);
-                    }
+            if (version != null) {
+                File jar = utils.getAndroidJar(version);
+                if (jar != null && jar.exists()) {
+                    classPathFiles.add(jar);
                 }
+            }
 
-                if (!coordinates.isEmpty()) {
-                    classPathFiles.addAll(utils.resolveArtifacts(userHomeDir,coordinates));
+            if (!coordinates.isEmpty()) {
+                start = metrics.start();
+                try {
+                    classPathFiles.addAll(utils.resolveArtifacts(userHomeDir, coordinates));
+                } finally {
+                    metrics.stop(GradleMetrics.ARTIFACTS, start);
                 }
-                if (localLibs != null) {
-                    try {
-                        Iterator<Object> it = localLibs.iterator();
-                        while (it.hasNext()) {
-                            File auxLibs = new File(it.next().toString()).getCanonicalFile();
-                            if (auxLibs.exists()) {
-                                if (auxLibs.isDirectory()) {
-                                    File[] files = auxLibs.listFiles();
-                                    for (File jar : files) {
-                                        classPathFiles.add(jar);
-                                    }
-                                } else {
-                                    classPathFiles.add(auxLibs);
+            }
+            if (localLibs != null) {
+                try {
+                    Iterator<Object> it = localLibs.iterator();
+                    while (it.hasNext()) {
+                        File auxLibs = new File(it.next().toString()).getCanonicalFile();
+                        if (auxLibs.exists()) {
+                            if (auxLibs.isDirectory()) {
+                                File[] files = auxLibs.listFiles();
+                                for (File jar : files) {
+                                    classPathFiles.add(jar);
                                 }
+                            } else {
+                                classPathFiles.add(auxLibs);
                             }
                         }
-                    } catch (IOException e) {
-                        throw new ConfigurationException("Error resolving the libs directories", e);
                     }
+                } catch (IOException e) {
+                    throw new ConfigurationException("Error resolving the libs directories", e);
                 }
+            }
 
-            } else {
-                if(project != null) {
-                    for (ExternalDependency externalDependency : project.getClasspath()) {
-                        classPathFiles.add(externalDependency.getFile());
-                    }
+        } else {
+            classPathFiles.addAll(model.getClassPath());
+        }
+        return new LinkedList<File>(classPathFiles);
+    }
 
-                    DomainObjectSet<? extends EclipseProjectDependency> modules = project.getProjectDependencies();
-                    if (modules != null) {
-                        Iterator<? extends EclipseProjectDependency> it = modules.iterator();
-                        while (it.hasNext()) {
-                            EclipseProjectDependency current = it.next();
-                            ClassLoaderConfigurationProvider prov = new ClassLoaderConfigurationProvider();
-                            prov.setWorkingDirectory(current.getTargetProject().getProjectDirectory().getAbsolutePath());
-                            classPathFiles.addAll(prov.getClassPathFiles());
-                        }
+    @Override
+    public void load() throws ConfigurationException {
+        if (configuration == null) {
+            return;
+        }
+        long start = startMetrics();
+        if (snapshot != null) {
+            List<File> classPathList = null;
+            try {
+                classPathList = new ClassPathSnapshot(new File(snapshot)).read(getSnapshotDir());
+            } catch (IOException e) {
+                throw new ConfigurationException("Error reading the classpath snapshot " + snapshot, e);
+            }
+            // the classes of a snapshot are compiled elsewhere, so there is no state to key a pooled loader
+            configuration.getParameters().put("classLoader", createClassLoader(classPathList));
+        } else if (watch) {
+            getConnector();
+            ProjectWatcher watcher = ProjectWatcher.get(getWatchKey(), this, new File(workingDirectory), watchDelay);
+            watcher.addConfiguration(configuration);
+        } else if (lazy) {
+            configuration.getParameters().put("classLoader", new LazyClassLoader(new Callable<ClassLoader>() {
+                @Override
+                public ClassLoader call() throws Exception {
+                    long start = metrics.start();
+                    try {
+                        return resolveClassLoader();
+                    } finally {
+                        publishMetrics(start);
                     }
                 }
+            }));
+            configuration.getParameters().put(GradleMetrics.PARAMETER, metrics);
+            return;
+        } else {
+            configuration.getParameters().put("classLoader", resolveClassLoader());
+        }
+        publishMetrics(start);
+    }
 
-            }
+    /**
+     * Replaces the metrics with empty ones, so that every load or refresh reports only its own work.
+     */
+    long startMetrics() {
+        metrics = new GradleMetrics();
+        return metrics.start();
+    }
 
-        } finally {
-            // Clean up
-            connection.close();
-        }
-        return new LinkedList<File>(classPathFiles);
+    /**
+     * Every setting that changes the class loader of a watched project, since the providers that find an existing
+     * watcher are not used.
+     */
+    private String getWatchKey() {
+        Fingerprint key = new Fingerprint().add(getClassPathCacheKey()).add(getCompileKey());
+        key.add(cacheDir).add(Boolean.toString(classPathCache)).add(Boolean.toString(structuredDependencies));
+        key.add(Boolean.toString(buildAction)).add(Boolean.toString(forceCompile)).add(watchDelay);
+        key.add(Boolean.toString(jarIndex)).add(Boolean.toString(sharedClassLoader));
+        return key.getValue();
     }
 
-   
-   
-   
+    private void publishMetrics(long start) throws ConfigurationException {
+        publishMetrics(start, Collections.singletonList(configuration));
+    }
 
-    @Override
-    public void load() throws ConfigurationException {
-        if (configuration != null) {
+    /**
+     * Sets the metrics as a parameter of the configurations and writes the report, if any.
+     */
+    void publishMetrics(long start, List<Configuration> configurations) throws ConfigurationException {
+        metrics.stop(GradleMetrics.TOTAL, start);
+        for (Configuration configuration : configurations) {
+            configuration.getParameters().put(GradleMetrics.PARAMETER, metrics);
+        }
+        if (metricsReport != null) {
+            try {
+                metrics.writeReport(new File(metricsReport));
+            } catch (IOException e) {
+                throw new ConfigurationException("Error writing the metrics report " + metricsReport, e);
+            }
+        }
+    }
 
+    /**
+     * Compiles the project, resolves its classpath and builds its class loader.
+     */
+    private ClassLoader resolveClassLoader() throws ConfigurationException {
+        List<File> classPathList = null;
+        boolean ownsSession = openSession();
+        try {
             try {
                 compile();
             } catch (Exception e1) {
                 throw new ConfigurationException("Error compiling the project", e1.getCause());
             }
-            List<File> classPathList = getClassPathFiles();
-            String[] bootPath = System.getProperties().get("sun.boot.class.path").toString()
-                    .split(Character.toString(File.pathSeparatorChar));
-            URL[] classPath = new URL[classPathList.size() + bootPath.length];
-
-            int i = 0;
-            for (String lib : bootPath) {
+            classPathList = getClassPathFiles();
+        } finally {
+            if (ownsSession) {
+                closeSession();
+            }
+        }
+        if (exportSnapshot != null) {
+            try {
+                new ClassPathSnapshot(new File(exportSnapshot)).write(getSnapshotDir(), classPathList);
+            } catch (IOException e) {
+                throw new ConfigurationException("Error writing the classpath snapshot " + exportSnapshot, e);
+            }
+        }
+        if (!poolClassLoaders) {
+            return createClassLoader(classPathList);
+        }
+        return openClassLoader(classPathList, getCompileState().getFingerprint());
+    }
 
-                try {
-                    classPath[i] = new File(lib).toURI().toURL();
-                } catch (MalformedURLException e) {
-                    throw new ConfigurationException("Invalid URL for the boot classpath entry " + lib, e.getCause());
-                }
+    /**
+     * Returns the class loader of the classpath from the pool, and sets its handle as a parameter of the
+     * configuration. The fingerprint of the last compilation identifies the compiled classes: without one, the
+     * loader is not pooled.
+     */
+    private ClassLoader openClassLoader(final List<File> classPathList, String compileFingerprint)
+            throws ConfigurationException {
+        if (compileFingerprint == null) {
+            return createClassLoader(classPathList);
+        }
+        ClassLoaderPool pool = ClassLoaderPool.get(poolSize, poolMemory * 1024 * 1024);
+        String key = getClassLoaderKey(classPathList, compileFingerprint);
+        if (pool.contains(key)) {
+            metrics.add("pooledClassLoaderHits", 1);
+        }
+        ClassLoaderHandle handle = pool.acquire(key, new Callable<ClassLoader>() {
+            @Override
+            public ClassLoader call() throws Exception {
+                return createClassLoader(classPathList);
+            }
+        });
+        configuration.getParameters().put(ClassLoaderHandle.PARAMETER, handle);
+        return handle.getClassLoader();
+    }
 
-                i++;
+    /**
+     * Hash of the classpath and of the options of its class loader. The class directories are identified by the
+     * fingerprint of the compilation, which covers the compiled classes, so they are not walked again.
+     */
+    private String getClassLoaderKey(List<File> classPathList, String compileFingerprint) {
+        Fingerprint fingerprint = new Fingerprint();
+        fingerprint.add(System.getProperty("sun.boot.class.path")).add(compileFingerprint);
+        fingerprint.add(Boolean.toString(jarIndex)).add(Boolean.toString(sharedClassLoader));
+        for (File file : classPathList) {
+            File entry = file.getAbsoluteFile();
+            fingerprint.add(entry.getPath());
+            if (entry.isFile()) {
+                fingerprint.add(entry.length()).add(entry.lastModified());
             }
+        }
+        return fingerprint.getValue();
+    }
 
-            if (!classPathList.isEmpty()) {
+    /**
+     * Directory the entries of a snapshot are relative to: the root of the build, since modules can be siblings of
+     * the working directory.
+     */
+    private File getSnapshotDir() {
+        File projectDir = new File(workingDirectory != null ? workingDirectory : ".").getAbsoluteFile();
+        return CompileState.getRootDir(projectDir);
+    }
 
-                for (File entry : classPathList) {
-                    try {
-                        classPath[i] = entry.toURI().toURL();
-                    } catch (MalformedURLException e) {
-                        throw new ConfigurationException("Invalid URL for the dependency " + entry.getAbsolutePath(),
-                                e.getCause());
-                    }
-                    i++;
+    /**
+     * Builds the class loader of the project: the boot classpath followed by the given classpath entries. With
+     * sharedClassLoader, the jars are loaded by parent loaders shared with the modules that have the same ones.
+     */
+    public ClassLoader createClassLoader(List<File> classPathList) throws ConfigurationException {
+        List<File> files = new LinkedList<File>();
+        Object bootPath = System.getProperties().get("sun.boot.class.path");
+        if (bootPath != null) {
+            for (String lib : bootPath.toString().split(Character.toString(File.pathSeparatorChar))) {
+                files.add(new File(lib));
+            }
+        }
+        files.addAll(classPathList);
+        long start = metrics.start();
+        try {
+            File indexDir = jarIndex ? new File(getCacheDir(), "jars") : null;
+            if (sharedClassLoader) {
+                ModuleClassLoader loader = ModuleClassLoader.create(files, indexDir);
+                ClassLoader shared = loader.getParent();
+                if (SharedClassLoaders.getReferences(shared) > 1
+                        || SharedClassLoaders.getReferences(shared.getParent()) > 0) {
+                    metrics.add("sharedClassLoaderHits", 1);
                 }
-
+                return loader;
             }
-            URLClassLoader loader = new URLClassLoader(classPath) {
-                @Override
-                protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
-                    Class<?> result = null;
-                    try {
-                        result = findClass(name);
+            return new IndexedClassLoader(files, ClassLoader.getSystemClassLoader(), indexDir);
+        } catch (IOException e) {
+            throw new ConfigurationException("Error indexing the classpath", e);
+        } finally {
+            metrics.stop(GradleMetrics.CLASS_LOADER, start);
+            metrics.add("classPathEntries", classPathList.size());
+            for (File file : classPathList) {
+                if (file.getName().endsWith(".jar")) {
+                    metrics.add("jars", 1);
+                }
+            }
+        }
+    }
 
-                    } catch (Throwable e) {
+    private static class ModuleNode {
 
-                    }
-                    if (result != null) {
-                        return result;
-                    }
+        private final ClassLoaderConfigurationProvider provider;
 
-                    return super.loadClass(name, resolve);
-                }
+        private final String projectPath;
 
-                @Override
-                public Class<?> loadClass(String name) throws ClassNotFoundException {
-                    return loadClass(name, false);
-                }
-            };
-            configuration.getParameters().put("classLoader", loader);
+        private final ProjectModel model;
+
+        private final List<ModuleNode> dependencies = new LinkedList<ModuleNode>();
 
+        private List<File> classPath;
+
+        public ModuleNode(ClassLoaderConfigurationProvider provider, String projectPath, ProjectModel model) {
+            this.provider = provider;
+            this.projectPath = projectPath;
+            this.model = model;
+        }
+
+        public List<File> resolve(ProjectConnection connection) throws ConfigurationException {
+            if (model == null) {
+                // outside of the current build: resolved (with its modules) through its own connection
+                return provider.getClassPathFiles();
+            }
+            return provider.resolveProjectClassPath(connection, projectPath, model);
+        }
+
+        public void addClassPath(Collection<File> classPathFiles, Set<ModuleNode> visited) {
+            if (visited.add(this)) {
+                classPathFiles.addAll(classPath);
+                for (ModuleNode dependency : dependencies) {
+                    dependency.addClassPath(classPathFiles, visited);
+                }
+            }
         }
     }
 
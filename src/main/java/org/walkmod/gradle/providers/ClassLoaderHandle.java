@@ -0,0 +1,68 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.providers;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reference to a class loader of a {@link ClassLoaderPool}. Closing it tells the pool that the loader is not used
+ * anymore by its holder, so the pool can close it once no other configuration uses it. A handle that is garbage
+ * collected without being closed is released by the pool.
+ */
+public class ClassLoaderHandle implements Closeable {
+
+    /**
+     * Parameter of the configuration that contains the handle of its class loader.
+     */
+    public static final String PARAMETER = "classLoaderHandle";
+
+    private final ClassLoaderPool pool;
+
+    private final ClassLoaderPool.Pooled pooled;
+
+    ClassLoaderPool.HandleReference reference;
+
+    private boolean closed = false;
+
+    ClassLoaderHandle(ClassLoaderPool pool, ClassLoaderPool.Pooled pooled) {
+        this.pool = pool;
+        this.pooled = pooled;
+    }
+
+    public ClassLoader getClassLoader() {
+        return pooled.getClassLoader();
+    }
+
+    public String getKey() {
+        return pooled.getKey();
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        pool.release(this);
+    }
+}
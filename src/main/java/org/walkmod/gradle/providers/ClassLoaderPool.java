@@ -0,0 +1,287 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.providers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import org.walkmod.conf.ConfigurationException;
+
+/**
+ * Class loaders of the process, keyed by a hash of their classpath, so that configurations with the same classpath
+ * use the same loader. Loaders that no handle references are kept idle for later configurations, and the least
+ * recently released ones are closed when the pool exceeds its number of loaders or its memory, estimated as the
+ * bytecode that the loaders have defined. Handles that are garbage collected without being closed release their
+ * loader too.
+ */
+public class ClassLoaderPool {
+
+    public static final int DEFAULT_MAX_LOADERS = 8;
+
+    public static final long DEFAULT_MAX_MEMORY = 256L * 1024 * 1024;
+
+    private static final Map<String, ClassLoaderPool> POOLS = new HashMap<String, ClassLoaderPool>();
+
+    private final Map<String, Pooled> loaders = new HashMap<String, Pooled>();
+
+    private final Set<HandleReference> handles = new HashSet<HandleReference>();
+
+    private final ReferenceQueue<ClassLoaderHandle> collected = new ReferenceQueue<ClassLoaderHandle>();
+
+    private final int maxLoaders;
+
+    private final long maxMemory;
+
+    private long releases = 0;
+
+    public ClassLoaderPool(int maxLoaders, long maxMemory) {
+        this.maxLoaders = maxLoaders;
+        this.maxMemory = maxMemory;
+    }
+
+    public static ClassLoaderPool get() {
+        return get(DEFAULT_MAX_LOADERS, DEFAULT_MAX_MEMORY);
+    }
+
+    /**
+     * Returns the pool of the process with the given bounds. Providers with different bounds use different pools, so
+     * each one keeps its own.
+     */
+    public static synchronized ClassLoaderPool get(int maxLoaders, long maxMemory) {
+        String key = maxLoaders + "|" + maxMemory;
+        ClassLoaderPool pool = POOLS.get(key);
+        if (pool == null) {
+            pool = new ClassLoaderPool(maxLoaders, maxMemory);
+            POOLS.put(key, pool);
+        }
+        return pool;
+    }
+
+    /**
+     * Returns a handle to the loader of the given key, creating it with the factory if the pool does not have it.
+     * Idle loaders above the bounds are closed first. Loaders of different keys are created concurrently.
+     */
+    public ClassLoaderHandle acquire(String key, Callable<ClassLoader> factory) throws ConfigurationException {
+        Pooled pooled = null;
+        List<Pooled> evicted = null;
+        synchronized (this) {
+            releaseCollected();
+            pooled = loaders.get(key);
+            if (pooled == null) {
+                pooled = new Pooled(key);
+                loaders.put(key, pooled);
+            }
+            pooled.references++;
+            evicted = evict();
+        }
+        try {
+            close(evicted);
+            pooled.init(factory);
+        } catch (IOException e) {
+            unreference(pooled);
+            throw new ConfigurationException("Error closing an idle class loader", e);
+        } catch (ConfigurationException e) {
+            unreference(pooled);
+            throw e;
+        }
+        ClassLoaderHandle handle = new ClassLoaderHandle(this, pooled);
+        synchronized (this) {
+            handle.reference = new HandleReference(handle, pooled, collected);
+            handles.add(handle.reference);
+        }
+        return handle;
+    }
+
+    private synchronized void unreference(Pooled pooled) {
+        pooled.references--;
+        if (pooled.references == 0 && pooled.loader == null && loaders.get(pooled.key) == pooled) {
+            loaders.remove(pooled.key);
+        }
+    }
+
+    void release(ClassLoaderHandle handle) throws IOException {
+        List<Pooled> evicted = null;
+        synchronized (this) {
+            HandleReference reference = handle.reference;
+            if (reference != null && handles.remove(reference)) {
+                // a cleared reference is not enqueued once the handle is collected
+                reference.clear();
+                release(reference.pooled);
+            }
+            releaseCollected();
+            evicted = evict();
+        }
+        close(evicted);
+    }
+
+    private void release(Pooled pooled) {
+        pooled.references--;
+        pooled.released = ++releases;
+    }
+
+    /**
+     * Releases the loaders of the handles that have been garbage collected without being closed.
+     */
+    private void releaseCollected() {
+        Reference<? extends ClassLoaderHandle> reference = collected.poll();
+        while (reference != null) {
+            HandleReference handle = (HandleReference) reference;
+            if (handles.remove(handle)) {
+                release(handle.pooled);
+            }
+            reference = collected.poll();
+        }
+    }
+
+    public synchronized int size() {
+        return loaders.size();
+    }
+
+    public synchronized boolean contains(String key) {
+        return loaders.containsKey(key);
+    }
+
+    /**
+     * Closes every idle loader.
+     */
+    public void clear() throws IOException {
+        List<Pooled> idle = new LinkedList<Pooled>();
+        synchronized (this) {
+            releaseCollected();
+            for (Pooled pooled : new LinkedList<Pooled>(loaders.values())) {
+                if (pooled.isIdle()) {
+                    loaders.remove(pooled.key);
+                    idle.add(pooled);
+                }
+            }
+        }
+        close(idle);
+    }
+
+    private synchronized List<Pooled> evict() {
+        List<Pooled> evicted = new LinkedList<Pooled>();
+        while (loaders.size() > maxLoaders || getMemory() > maxMemory) {
+            Pooled oldest = null;
+            for (Pooled pooled : loaders.values()) {
+                if (pooled.isIdle() && (oldest == null || pooled.released < oldest.released)) {
+                    oldest = pooled;
+                }
+            }
+            if (oldest == null) {
+                break;
+            }
+            loaders.remove(oldest.key);
+            evicted.add(oldest);
+        }
+        return evicted;
+    }
+
+    private long getMemory() {
+        long memory = 0;
+        for (Pooled pooled : loaders.values()) {
+            memory += pooled.getMemory();
+        }
+        return memory;
+    }
+
+    /**
+     * Closes every given loader, and then throws the first error, if any.
+     */
+    private static void close(List<Pooled> evicted) throws IOException {
+        IOException error = null;
+        for (Pooled pooled : evicted) {
+            ClassLoader loader = pooled.getClassLoader();
+            if (loader instanceof Closeable) {
+                try {
+                    ((Closeable) loader).close();
+                } catch (IOException e) {
+                    if (error == null) {
+                        error = e;
+                    }
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    static class HandleReference extends WeakReference<ClassLoaderHandle> {
+
+        private final Pooled pooled;
+
+        public HandleReference(ClassLoaderHandle handle, Pooled pooled, ReferenceQueue<ClassLoaderHandle> queue) {
+            super(handle, queue);
+            this.pooled = pooled;
+        }
+    }
+
+    static class Pooled {
+
+        private final String key;
+
+        private volatile ClassLoader loader;
+
+        private int references = 0;
+
+        private long released = 0;
+
+        public Pooled(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public ClassLoader getClassLoader() {
+            return loader;
+        }
+
+        private synchronized void init(Callable<ClassLoader> factory) throws ConfigurationException {
+            if (loader == null) {
+                try {
+                    loader = factory.call();
+                } catch (ConfigurationException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new ConfigurationException("Error creating the class loader", e);
+                }
+            }
+        }
+
+        private boolean isIdle() {
+            return references == 0 && loader != null;
+        }
+
+        private long getMemory() {
+            if (loader instanceof IndexedClassLoader) {
+                return ((IndexedClassLoader) loader).getDefinedBytes();
+            }
+            return 0;
+        }
+    }
+}
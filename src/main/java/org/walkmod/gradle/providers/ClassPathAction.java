@@ -0,0 +1,51 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.providers;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.gradle.tooling.BuildAction;
+import org.gradle.tooling.BuildController;
+import org.gradle.tooling.model.GradleProject;
+import org.gradle.tooling.model.eclipse.EclipseProject;
+
+/**
+ * Collects the models of every project of the build inside the daemon, so that a multi-module build is configured
+ * once and its classpath comes back in a single round-trip. As with the models fetched one by one, the GradleProject
+ * model is collected instead when the Eclipse one cannot be built.
+ */
+public class ClassPathAction implements BuildAction<Map<String, ProjectModel>> {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public Map<String, ProjectModel> execute(BuildController controller) {
+        try {
+            EclipseProject project = null;
+            try {
+                project = controller.getModel(EclipseProject.class);
+            } catch (RuntimeException e) {
+                // e.g. Android builds, whose Eclipse model cannot be built: errors of the build scripts fail this
+                // model too
+                return ProjectModel.collect(controller.getModel(GradleProject.class));
+            }
+            return ProjectModel.collect(project);
+        } catch (IOException e) {
+            throw new RuntimeException("Error resolving the project directories", e);
+        }
+    }
+}
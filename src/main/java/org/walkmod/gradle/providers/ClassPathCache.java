@@ -0,0 +1,181 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.providers;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * On-disk cache of a resolved classpath. An entry is only valid while its key (the provider settings) and the
+ * fingerprint of the build scripts of every project that contributed to it remain the same. The fingerprint also
+ * covers the gradle and buildSrc directories of the root of the build, where version catalogs, applied scripts and
+ * build logic declare dependencies too.
+ */
+public class ClassPathCache {
+
+    private static final String[] BUILD_INPUTS = { "build.gradle", "build.gradle.kts", "settings.gradle",
+            "settings.gradle.kts", "gradle.properties", "gradle.lockfile", "buildscript-gradle.lockfile" };
+
+    private static final String KEY = "key=";
+
+    private static final String PROJECT = "project=";
+
+    private static final String FINGERPRINT = "fingerprint=";
+
+    private static final String ENTRY = "entry=";
+
+    private final File cacheFile;
+
+    public ClassPathCache(File cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    public File getCacheFile() {
+        return cacheFile;
+    }
+
+    /**
+     * Returns the cached classpath, or null if there is no valid entry for the given key.
+     */
+    public List<File> load(String key) {
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        List<String> lines = null;
+        try {
+            lines = FileUtils.readLines(cacheFile, "UTF-8");
+        } catch (IOException e) {
+            return null;
+        }
+        String cachedKey = null;
+        String fingerprint = null;
+        List<File> projectDirs = new LinkedList<File>();
+        List<File> entries = new LinkedList<File>();
+        for (String line : lines) {
+            if (line.startsWith(KEY)) {
+                cachedKey = line.substring(KEY.length());
+            } else if (line.startsWith(PROJECT)) {
+                projectDirs.add(new File(line.substring(PROJECT.length())));
+            } else if (line.startsWith(FINGERPRINT)) {
+                fingerprint = line.substring(FINGERPRINT.length());
+            } else if (line.startsWith(ENTRY)) {
+                entries.add(new File(line.substring(ENTRY.length())));
+            }
+        }
+        if (!key.equals(cachedKey) || fingerprint == null || !fingerprint.equals(fingerprint(projectDirs))) {
+            return null;
+        }
+        for (File entry : entries) {
+            if (!entry.exists()) {
+                return null;
+            }
+        }
+        return entries;
+    }
+
+    public void store(String key, Collection<File> projectDirs, List<File> entries) throws IOException {
+        List<String> lines = new LinkedList<String>();
+        lines.add(KEY + key);
+        Collection<File> dirs = new LinkedHashSet<File>(projectDirs);
+        for (File dir : dirs) {
+            lines.add(PROJECT + dir.getAbsolutePath());
+        }
+        lines.add(FINGERPRINT + fingerprint(dirs));
+        for (File entry : entries) {
+            lines.add(ENTRY + entry.getAbsolutePath());
+        }
+        File parent = cacheFile.getAbsoluteFile().getParentFile();
+        parent.mkdirs();
+        // unique among the processes that share the cache directory, so each one renames a complete file
+        File tmp = File.createTempFile(cacheFile.getName(), ".tmp", parent);
+        try {
+            FileUtils.writeLines(tmp, "UTF-8", lines);
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        if (!tmp.renameTo(cacheFile)) {
+            cacheFile.delete();
+            if (!tmp.renameTo(cacheFile)) {
+                tmp.delete();
+                throw new IOException("Error writing the classpath cache " + cacheFile.getAbsolutePath());
+            }
+        }
+    }
+
+    public void invalidate() {
+        cacheFile.delete();
+    }
+
+    private String fingerprint(Collection<File> projectDirs) {
+        Fingerprint fingerprint = new Fingerprint();
+        Set<File> rootDirs = new LinkedHashSet<File>();
+        Iterator<File> it = projectDirs.iterator();
+        while (it.hasNext()) {
+            File projectDir = it.next();
+            rootDirs.add(CompileState.getRootDir(projectDir.getAbsoluteFile()));
+            for (File input : getBuildInputs(projectDir)) {
+                fingerprint.addFile(input);
+            }
+        }
+        for (File rootDir : rootDirs) {
+            CompileState.addDirectory(fingerprint, new File(rootDir, "gradle"), 0);
+            File[] files = new File(rootDir, "buildSrc").listFiles();
+            if (files != null) {
+                Arrays.sort(files);
+                for (File file : files) {
+                    String name = file.getName();
+                    // its outputs change on every build of the build logic
+                    if (name.startsWith(".") || "build".equals(name)) {
+                        continue;
+                    }
+                    if (file.isDirectory()) {
+                        CompileState.addDirectory(fingerprint, file, 0);
+                    } else {
+                        fingerprint.add(file.getPath()).add(file.length()).add(file.lastModified());
+                    }
+                }
+            }
+        }
+        return fingerprint.getValue();
+    }
+
+    public static List<File> getBuildInputs(File projectDir) {
+        List<File> inputs = new LinkedList<File>();
+        for (String name : BUILD_INPUTS) {
+            inputs.add(new File(projectDir, name));
+        }
+        File[] locks = new File(projectDir, "gradle" + File.separator + "dependency-locks").listFiles();
+        if (locks != null) {
+            Arrays.sort(locks);
+            for (File lock : locks) {
+                if (lock.getName().endsWith(".lockfile")) {
+                    inputs.add(lock);
+                }
+            }
+        }
+        return inputs;
+    }
+}
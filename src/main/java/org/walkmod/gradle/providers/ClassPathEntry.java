@@ -0,0 +1,46 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.providers;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Set;
+
+/**
+ * A jar file or a classes directory of the classpath of an {@link IndexedClassLoader}. Paths and packages use
+ * '/' as separator, and the default package is the empty string.
+ */
+public interface ClassPathEntry {
+
+    URL getURL();
+
+    /**
+     * Returns the directories that contain at least one file.
+     */
+    Set<String> getPackages() throws IOException;
+
+    /**
+     * Returns the content of the given file, or null if it does not exist.
+     */
+    byte[] getBytes(String path) throws IOException;
+
+    /**
+     * Returns the URL of the given file, or null if it does not exist.
+     */
+    URL getResource(String path) throws IOException;
+
+    void close() throws IOException;
+}
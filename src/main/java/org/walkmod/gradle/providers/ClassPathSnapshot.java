@@ -0,0 +1,113 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.providers;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.walkmod.conf.ConfigurationException;
+
+/**
+ * Resolved classpath of a project written to a file, so that other machines can load the project without Gradle.
+ * Entries inside the project or the user home are written relative to them, so the snapshot remains valid when
+ * the project is checked out in another directory or by another user.
+ */
+public class ClassPathSnapshot {
+
+    private static final String HEADER = "walkmod-classpath-snapshot=1";
+
+    private static final String PROJECT = "project=";
+
+    private static final String HOME = "home=";
+
+    private static final String FILE = "file=";
+
+    private final File snapshotFile;
+
+    public ClassPathSnapshot(File snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
+    public File getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    public void write(File projectDir, List<File> entries) throws IOException {
+        String project = projectDir.getCanonicalPath() + File.separator;
+        String home = new File(System.getProperty("user.home")).getCanonicalPath() + File.separator;
+        List<String> lines = new LinkedList<String>();
+        lines.add(HEADER);
+        for (File entry : entries) {
+            String path = entry.getAbsoluteFile().getCanonicalPath();
+            if (path.startsWith(project)) {
+                lines.add(PROJECT + toPortable(path.substring(project.length())));
+            } else if (path.startsWith(home)) {
+                lines.add(HOME + toPortable(path.substring(home.length())));
+            } else {
+                lines.add(FILE + path);
+            }
+        }
+        File parent = snapshotFile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        FileUtils.writeLines(snapshotFile, "UTF-8", lines);
+    }
+
+    /**
+     * Reads the entries of the snapshot. Throws a ConfigurationException if any of them does not exist, since the
+     * class loader would silently miss their classes.
+     */
+    public List<File> read(File projectDir) throws IOException, ConfigurationException {
+        List<String> lines = FileUtils.readLines(snapshotFile, "UTF-8");
+        if (lines.isEmpty() || !HEADER.equals(lines.get(0))) {
+            throw new IOException("The file " + snapshotFile.getAbsolutePath() + " is not a classpath snapshot");
+        }
+        File home = new File(System.getProperty("user.home"));
+        List<File> entries = new LinkedList<File>();
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.startsWith(PROJECT)) {
+                entries.add(new File(projectDir, fromPortable(line.substring(PROJECT.length()))));
+            } else if (line.startsWith(HOME)) {
+                entries.add(new File(home, fromPortable(line.substring(HOME.length()))));
+            } else if (line.startsWith(FILE)) {
+                entries.add(new File(line.substring(FILE.length())));
+            }
+        }
+        List<String> missing = new LinkedList<String>();
+        for (File entry : entries) {
+            if (!entry.exists()) {
+                missing.add(entry.getPath());
+            }
+        }
+        if (!missing.isEmpty()) {
+            throw new ConfigurationException("The classpath snapshot " + snapshotFile.getAbsolutePath()
+                    + " contains missing files: " + missing);
+        }
+        return entries;
+    }
+
+    private static String toPortable(String path) {
+        return path.replace(File.separatorChar, '/');
+    }
+
+    private static String fromPortable(String path) {
+        return path.replace('/', File.separatorChar);
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.providers;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Remembers the state of the sources, build scripts and compiled classes after the last successful compilation of a
+ * build, so that the next compilation can be skipped when nothing has changed. Files are compared by size and last
+ * modification time.
+ * <p>
+ * Only the build scripts, the src directories and the compiled classes of the projects of the build are checked.
+ * The projects are found when the state is updated, right after a compilation, so the checks do not walk the rest
+ * of the build (build outputs, caches or documentation). Adding a project changes the settings script, which is
+ * checked too.
+ */
+public class CompileState {
+
+    private static final String[] OUTPUTS = { "classes", "intermediates" + File.separator + "classes" };
+
+    private static final String PROJECT = "project=";
+
+    private static final String FINGERPRINT = "fingerprint=";
+
+    private static final String BUILD = "build=";
+
+    private final File stateFile;
+
+    private final List<String> outputs = new LinkedList<String>(Arrays.asList(OUTPUTS));
+
+    public CompileState(File stateFile) {
+        this.stateFile = stateFile;
+    }
+
+    /**
+     * Adds a directory, relative to the build directories, whose compiled classes are part of the state.
+     */
+    public CompileState addOutput(String output) {
+        String path = output.replace('/', File.separatorChar);
+        if (!outputs.contains(path)) {
+            outputs.add(path);
+        }
+        return this;
+    }
+
+    public File getStateFile() {
+        return stateFile;
+    }
+
+    public boolean isUpToDate(String key, File projectDir) {
+        String previous = getFingerprint();
+        if (previous == null) {
+            return false;
+        }
+        List<File> projectDirs = readProjectDirs();
+        return projectDirs != null && previous.equals(fingerprint(key, projectDir, projectDirs, getBuildDirs()));
+    }
+
+    /**
+     * Returns the fingerprint of the last successful compilation, or null if there is none.
+     */
+    public String getFingerprint() {
+        List<String> lines = readLines();
+        if (lines != null) {
+            for (String line : lines) {
+                if (line.startsWith(FINGERPRINT)) {
+                    return line.substring(FINGERPRINT.length());
+                }
+            }
+        }
+        return null;
+    }
+
+    private List<String> readLines() {
+        if (!stateFile.isFile()) {
+            return null;
+        }
+        try {
+            return FileUtils.readLines(stateFile, "UTF-8");
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private List<File> readProjectDirs() {
+        return readFiles(PROJECT);
+    }
+
+    private List<File> readFiles(String prefix) {
+        List<String> lines = readLines();
+        if (lines == null) {
+            return null;
+        }
+        List<File> files = new LinkedList<File>();
+        for (String line : lines) {
+            if (line.startsWith(prefix)) {
+                files.add(new File(line.substring(prefix.length())));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Returns the build directories reported by the project models, or an empty list if they have not been recorded
+     * yet.
+     */
+    public List<File> getBuildDirs() {
+        List<File> buildDirs = readFiles(BUILD);
+        return buildDirs != null ? buildDirs : new LinkedList<File>();
+    }
+
+    /**
+     * Records the build directories reported by the project models. The state is no longer up to date if they
+     * differ from the recorded ones.
+     */
+    public void setBuildDirs(Collection<File> buildDirs) throws IOException {
+        List<File> sorted = new LinkedList<File>();
+        for (File dir : buildDirs) {
+            File absolute = dir.getAbsoluteFile();
+            if (!sorted.contains(absolute)) {
+                sorted.add(absolute);
+            }
+        }
+        Collections.sort(sorted);
+        if (sorted.equals(getBuildDirs())) {
+            return;
+        }
+        List<String> lines = new LinkedList<String>();
+        List<String> previous = readLines();
+        if (previous != null) {
+            for (String line : previous) {
+                if (!line.startsWith(BUILD)) {
+                    lines.add(line);
+                }
+            }
+        }
+        for (File dir : sorted) {
+            lines.add(BUILD + dir.getPath());
+        }
+        write(lines);
+    }
+
+    public void update(String key, File projectDir) throws IOException {
+        File rootDir = getRootDir(projectDir.getAbsoluteFile());
+        List<File> projectDirs = new LinkedList<File>();
+        findProjectDirs(rootDir, projectDirs);
+        List<File> buildDirs = getBuildDirs();
+        List<String> lines = new LinkedList<String>();
+        for (File dir : projectDirs) {
+            lines.add(PROJECT + dir.getAbsolutePath());
+        }
+        for (File dir : buildDirs) {
+            lines.add(BUILD + dir.getPath());
+        }
+        lines.add(FINGERPRINT + fingerprint(key, projectDir, projectDirs, buildDirs));
+        write(lines);
+    }
+
+    private void write(List<String> lines) throws IOException {
+        File parent = stateFile.getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        FileUtils.writeLines(stateFile, "UTF-8", lines);
+    }
+
+    public void invalidate() {
+        stateFile.delete();
+    }
+
+    /**
+     * Fingerprint of the given key and the inputs of the given projects: their build scripts, the files of their
+     * src directories and the compiled classes of the build directories, plus the gradle directory of the root.
+     * Without recorded build directories, the build directory of each project is used.
+     */
+    private String fingerprint(String key, File projectDir, Collection<File> projectDirs, List<File> buildDirs) {
+        Fingerprint fingerprint = new Fingerprint();
+        fingerprint.add(key);
+        File rootDir = getRootDir(projectDir.getAbsoluteFile());
+        int prefix = rootDir.getPath().length();
+        addFiles(fingerprint, ClassPathCache.getBuildInputs(rootDir), prefix);
+        addDirectory(fingerprint, new File(rootDir, "gradle"), prefix);
+        for (File dir : projectDirs) {
+            fingerprint.add(dir.getPath());
+            addFiles(fingerprint, ClassPathCache.getBuildInputs(dir), prefix);
+            addDirectory(fingerprint, new File(dir, "src"), prefix);
+            if (buildDirs.isEmpty()) {
+                addOutputs(fingerprint, new File(dir, "build"), prefix);
+            }
+        }
+        for (File dir : buildDirs) {
+            fingerprint.add(dir.getPath());
+            addOutputs(fingerprint, dir, dir.getPath().startsWith(rootDir.getPath()) ? prefix : 0);
+        }
+        return fingerprint.getValue();
+    }
+
+    private void addOutputs(Fingerprint fingerprint, File buildDir, int prefix) {
+        for (String output : outputs) {
+            addDirectory(fingerprint, new File(buildDir, output), prefix);
+        }
+    }
+
+    /**
+     * Returns the directory of the settings.gradle that contains the project, because the project can depend on
+     * sibling modules.
+     */
+    public static File getRootDir(File projectDir) {
+        File current = projectDir;
+        while (current != null) {
+            if (new File(current, "settings.gradle").isFile() || new File(current, "settings.gradle.kts").isFile()) {
+                return current;
+            }
+            current = current.getParentFile();
+        }
+        return projectDir;
+    }
+
+    /**
+     * Finds the directories with a build script, without entering their build and src directories.
+     */
+    private static void findProjectDirs(File dir, List<File> projectDirs) {
+        boolean project = isProjectDir(dir);
+        if (project) {
+            projectDirs.add(dir);
+        }
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(".") || (project && ("build".equals(name) || "src".equals(name)))) {
+                continue;
+            }
+            if (file.isDirectory()) {
+                findProjectDirs(file, projectDirs);
+            }
+        }
+    }
+
+    private static void addFiles(Fingerprint fingerprint, List<File> files, int prefix) {
+        for (File file : files) {
+            if (file.isFile()) {
+                fingerprint.add(file.getPath().substring(prefix));
+                fingerprint.add(file.length()).add(file.lastModified());
+            }
+        }
+    }
+
+    /**
+     * Adds the paths, after the given prefix, the sizes and the modification times of the files of the directory.
+     */
+    static void addDirectory(Fingerprint fingerprint, File dir, int prefix) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.getName().startsWith(".")) {
+                continue;
+            }
+            if (file.isDirectory()) {
+                addDirectory(fingerprint, file, prefix);
+            } else {
+                fingerprint.add(file.getPath().substring(prefix));
+                fingerprint.add(file.length()).add(file.lastModified());
+            }
+        }
+    }
+
+    private static boolean isProjectDir(File dir) {
+        return new File(dir, "build.gradle").isFile() || new File(dir, "build.gradle.kts").isFile();
+    }
+}
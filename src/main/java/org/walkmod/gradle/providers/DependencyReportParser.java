@@ -0,0 +1,86 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.providers;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Extracts the compile and provided dependencies of an Android project from the dependencies report while Gradle
+ * writes it, so the report is never held in memory. Each configuration is read from its header until the next
+ * debugApk (compile) or releaseApk (provided) section.
+ */
+public class DependencyReportParser extends LineParser {
+
+    private boolean pendingCompile = false;
+
+    private boolean pendingProvided = false;
+
+    private boolean compile = false;
+
+    private boolean provided = false;
+
+    private final List<String> coordinates = new LinkedList<String>();
+
+    @Override
+    protected void parseLine(String current) {
+        if (pendingCompile || pendingProvided) {
+            if (!current.startsWith("No dependencies")) {
+                compile = compile || pendingCompile;
+                provided = provided || pendingProvided;
+            }
+            pendingCompile = false;
+            pendingProvided = false;
+        }
+        if (current.startsWith("debugApk")) {
+            compile = false;
+        }
+        if (current.startsWith("releaseApk")) {
+            provided = false;
+        }
+        if (compile || provided) {
+            addDependency(current);
+        }
+        if (current.startsWith("compile")) {
+            pendingCompile = true;
+        } else if (current.startsWith("provided")) {
+            pendingProvided = true;
+        }
+    }
+
+    private void addDependency(String current) {
+        int index = current.lastIndexOf("--");
+        if (index != -1 && current.length() > index + 2) {
+            String artifact = current.substring(index + 2).trim();
+            if (!artifact.endsWith("(*)")) {
+                int dynamicVersionIndex = artifact.indexOf("->");
+                if (dynamicVersionIndex != -1) {
+                    String artifactName = artifact.substring(0, artifact.lastIndexOf(":")).trim();
+                    String version = artifact.substring(dynamicVersionIndex + 2).trim();
+                    artifact = artifactName + ":" + version;
+                }
+                coordinates.add(artifact);
+            }
+        }
+    }
+
+    /**
+     * Returns the coordinates found so far, in the order of the report.
+     */
+    public List<String> getCoordinates() {
+        return new LinkedList<String>(coordinates);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.providers;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+
+public class DirectoryClassPathEntry implements ClassPathEntry {
+
+    private final File dir;
+
+    private final URL url;
+
+    public DirectoryClassPathEntry(File dir) throws IOException {
+        this.dir = dir;
+        this.url = dir.toURI().toURL();
+    }
+
+    @Override
+    public URL getURL() {
+        return url;
+    }
+
+    @Override
+    public Set<String> getPackages() {
+        Set<String> packages = new HashSet<String>();
+        addPackages(dir, "", packages);
+        return packages;
+    }
+
+    private void addPackages(File current, String path, Set<String> packages) {
+        File[] files = current.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    addPackages(file, path.length() == 0 ? file.getName() : path + "/" + file.getName(), packages);
+                } else {
+                    packages.add(path);
+                }
+            }
+        }
+    }
+
+    @Override
+    public byte[] getBytes(String path) throws IOException {
+        File file = new File(dir, path);
+        if (!file.isFile()) {
+            return null;
+        }
+        return FileUtils.readFileToByteArray(file);
+    }
+
+    @Override
+    public URL getResource(String path) throws IOException {
+        File file = new File(dir, path);
+        if (!file.exists()) {
+            return null;
+        }
+        return file.toURI().toURL();
+    }
+
+    @Override
+    public void close() {
+    }
+}
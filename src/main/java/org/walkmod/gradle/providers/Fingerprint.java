@@ -0,0 +1,114 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.providers;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.walkmod.conf.ConfigurationException;
+
+/**
+ * SHA-1 digest of a sequence of values and files, used to detect changes between walkmod runs.
+ */
+public class Fingerprint {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final MessageDigest digest;
+
+    public Fingerprint() {
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new ConfigurationException("SHA-1 is not available", e);
+        }
+    }
+
+    public Fingerprint add(String value) {
+        if (value == null) {
+            digest.update((byte) 0);
+        } else {
+            try {
+                digest.update(value.getBytes("UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new ConfigurationException("UTF-8 is not available", e);
+            }
+        }
+        digest.update((byte) '\n');
+        return this;
+    }
+
+    public Fingerprint add(long value) {
+        return add(Long.toString(value));
+    }
+
+    /**
+     * Adds the path and the content of a file. Missing files are part of the fingerprint too, so creating
+     * them later changes it.
+     */
+    public Fingerprint addFile(File file) {
+        add(file.getAbsolutePath());
+        if (!file.isFile()) {
+            return add("<missing>");
+        }
+        return addContent(file);
+    }
+
+    /**
+     * Adds the content of a file, but not its path.
+     */
+    public Fingerprint addContent(File file) {
+        byte[] buffer = new byte[8192];
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            int read = 0;
+            while ((read = is.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new ConfigurationException("Error reading " + file.getAbsolutePath(), e);
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        digest.update((byte) '\n');
+        return this;
+    }
+
+    public String getValue() {
+        byte[] bytes = digest.digest();
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    public static String of(String value) {
+        return new Fingerprint().add(value).getValue();
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.providers;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Index of the artifacts of the Gradle cache (caches/modules-2/files-2.1), built in one pass and shared by the whole
+ * process. Each version is validated against the modification time of its directory, which changes when Gradle
+ * adds or removes a file hash below it, and rescanned only when it does.
+ */
+public class GradleCacheIndex {
+
+    private static final ConcurrentMap<String, GradleCacheIndex> INDEXES = new ConcurrentHashMap<String, GradleCacheIndex>();
+
+    private final File repoDir;
+
+    private final File indexFile;
+
+    private final ConcurrentMap<String, Version> versions = new ConcurrentHashMap<String, Version>();
+
+    private boolean loaded = false;
+
+    private volatile boolean modified = false;
+
+    public GradleCacheIndex(File repoDir, File indexFile) {
+        this.repoDir = repoDir;
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Returns the index of the given repository, persisted in the given directory if it is not null.
+     */
+    public static GradleCacheIndex get(File repoDir, File indexDir) {
+        String key = repoDir.getAbsolutePath();
+        GradleCacheIndex index = INDEXES.get(key);
+        if (index == null) {
+            File indexFile = null;
+            if (indexDir != null) {
+                indexFile = new File(indexDir, Fingerprint.of(key) + ".index");
+            }
+            GradleCacheIndex newIndex = new GradleCacheIndex(repoDir, indexFile);
+            index = INDEXES.putIfAbsent(key, newIndex);
+            if (index == null) {
+                index = newIndex;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Forgets the index of the given repository, so that the next lookups scan it again.
+     */
+    public static void remove(File repoDir) {
+        INDEXES.remove(repoDir.getAbsolutePath());
+    }
+
+    public File getRepoDir() {
+        return repoDir;
+    }
+
+    /**
+     * Returns the version, or null if its directory does not exist. The file of a version is null when the
+     * directory does not contain its jar or aar.
+     */
+    public Version find(String groupId, String artifactId, String version) {
+        load();
+        String key = groupId + ":" + artifactId + ":" + version;
+        File versionDir = new File(new File(new File(repoDir, groupId), artifactId), version);
+        Version result = versions.get(key);
+        long lastModified = versionDir.lastModified();
+        if (result != null && result.lastModified == lastModified && lastModified != 0L) {
+            return result;
+        }
+        result = scan(versionDir, artifactId, version);
+        if (result == null) {
+            if (versions.remove(key) != null) {
+                modified = true;
+            }
+        } else {
+            versions.put(key, result);
+            modified = true;
+        }
+        return result;
+    }
+
+    private synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (indexFile != null && indexFile.isFile()) {
+            try {
+                for (String line : FileUtils.readLines(indexFile, "UTF-8")) {
+                    String[] parts = line.split("\t", -1);
+                    if (parts.length == 3) {
+                        File file = parts[2].length() == 0 ? null : new File(parts[2]);
+                        versions.put(parts[0], new Version(Long.parseLong(parts[1]), file));
+                    }
+                }
+                return;
+            } catch (IOException e) {
+                versions.clear();
+            } catch (NumberFormatException e) {
+                versions.clear();
+            }
+        }
+        build();
+    }
+
+    private void build() {
+        File[] groups = listDirs(repoDir);
+        for (File group : groups) {
+            for (File artifact : listDirs(group)) {
+                for (File versionDir : listDirs(artifact)) {
+                    Version version = scan(versionDir, artifact.getName(), versionDir.getName());
+                    if (version != null) {
+                        versions.put(group.getName() + ":" + artifact.getName() + ":" + versionDir.getName(), version);
+                    }
+                }
+            }
+        }
+        modified = true;
+    }
+
+    private static File[] listDirs(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        List<File> dirs = new LinkedList<File>();
+        for (File file : files) {
+            if (file.isDirectory()) {
+                dirs.add(file);
+            }
+        }
+        File[] result = dirs.toArray(new File[dirs.size()]);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private Version scan(File versionDir, String artifactId, String version) {
+        long lastModified = versionDir.lastModified();
+        File[] hashes = versionDir.listFiles();
+        if (hashes == null) {
+            return null;
+        }
+        Arrays.sort(hashes);
+        String prefix = artifactId + "-" + version;
+        for (File hash : hashes) {
+            String[] names = hash.list();
+            if (names != null) {
+                List<String> files = Arrays.asList(names);
+                if (files.contains(prefix + ".jar")) {
+                    return new Version(lastModified, new File(hash, prefix + ".jar"));
+                }
+                if (files.contains(prefix + ".aar")) {
+                    return new Version(lastModified, new File(hash, prefix + ".aar"));
+                }
+            }
+        }
+        return new Version(lastModified, null);
+    }
+
+    /**
+     * Writes the index, if it is persistent and it has changed since it was loaded.
+     */
+    public synchronized void save() throws IOException {
+        if (indexFile == null || !modified) {
+            return;
+        }
+        List<String> lines = new LinkedList<String>();
+        for (Map.Entry<String, Version> entry : versions.entrySet()) {
+            Version version = entry.getValue();
+            lines.add(entry.getKey() + "\t" + version.lastModified + "\t"
+                    + (version.file == null ? "" : version.file.getAbsolutePath()));
+        }
+        File parent = indexFile.getAbsoluteFile().getParentFile();
+        parent.mkdirs();
+        // unique among the processes that share the cache directory, so each one renames a complete file
+        File tmp = File.createTempFile(indexFile.getName(), ".tmp", parent);
+        try {
+            FileUtils.writeLines(tmp, "UTF-8", lines);
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        if (!tmp.renameTo(indexFile)) {
+            indexFile.delete();
+            if (!tmp.renameTo(indexFile)) {
+                tmp.delete();
+                throw new IOException("Error writing the index " + indexFile.getAbsolutePath());
+            }
+        }
+        modified = false;
+    }
+
+    public static class Version {
+
+        private final long lastModified;
+
+        private final File file;
+
+        public Version(long lastModified, File file) {
+            this.lastModified = lastModified;
+            this.file = file;
+        }
+
+        public File getFile() {
+            return file;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.providers;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+
+/**
+ * Time spent in each phase of the resolution of a project and counters of what it has processed. Phases that run
+ * in parallel for several modules accumulate the time of every thread, so they can exceed the total time.
+ */
+public class GradleMetrics {
+
+    /**
+     * Name of the configuration parameter with the metrics of the last load.
+     */
+    public static final String PARAMETER = "gradleMetrics";
+
+    public static final String TOTAL = "total";
+
+    public static final String CONNECT = "connect";
+
+    public static final String COMPILE = "compile";
+
+    public static final String MODELS = "models";
+
+    public static final String DEPENDENCIES = "dependencies";
+
+    public static final String ARTIFACTS = "artifacts";
+
+    public static final String AAR_EXTRACTION = "aarExtraction";
+
+    public static final String CLASS_LOADER = "classLoader";
+
+    private final ConcurrentMap<String, AtomicLong> times = new ConcurrentHashMap<String, AtomicLong>();
+
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Adds the time elapsed since the given start, returned by {@link #start()}, to the phase.
+     */
+    public void stop(String phase, long start) {
+        get(times, phase).addAndGet(System.nanoTime() - start);
+    }
+
+    public void add(String counter, long delta) {
+        get(counters, counter).addAndGet(delta);
+    }
+
+    private static AtomicLong get(ConcurrentMap<String, AtomicLong> values, String name) {
+        AtomicLong value = values.get(name);
+        if (value == null) {
+            AtomicLong newValue = new AtomicLong();
+            value = values.putIfAbsent(name, newValue);
+            if (value == null) {
+                value = newValue;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Returns the time of the phase in milliseconds.
+     */
+    public long getTime(String phase) {
+        AtomicLong value = times.get(phase);
+        return value == null ? 0L : TimeUnit.NANOSECONDS.toMillis(value.get());
+    }
+
+    public long getCounter(String counter) {
+        AtomicLong value = counters.get(counter);
+        return value == null ? 0L : value.get();
+    }
+
+    /**
+     * Returns the time of every phase in milliseconds.
+     */
+    public SortedMap<String, Long> getTimes() {
+        SortedMap<String, Long> result = new TreeMap<String, Long>();
+        for (String phase : times.keySet()) {
+            result.put(phase, getTime(phase));
+        }
+        return result;
+    }
+
+    public SortedMap<String, Long> getCounters() {
+        SortedMap<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        JSONObject timesJson = new JSONObject();
+        timesJson.putAll(getTimes());
+        JSONObject countersJson = new JSONObject();
+        countersJson.putAll(getCounters());
+        json.put("timesMillis", timesJson);
+        json.put("counters", countersJson);
+        return json;
+    }
+
+    public void writeReport(File file) throws IOException {
+        FileUtils.writeStringToFile(file, JSON.toJSONString(toJSON(), true), "UTF-8");
+    }
+
+    @Override
+    public String toString() {
+        return "times (ms): " + getTimes() + ", counters: " + getCounters();
+    }
+}
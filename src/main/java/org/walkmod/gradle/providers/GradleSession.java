@@ -0,0 +1,85 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.providers;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.gradle.tooling.GradleConnector;
+import org.gradle.tooling.ProjectConnection;
+import org.walkmod.conf.ConfigurationException;
+
+/**
+ * Keeps the Tooling API connections opened while resolving a project, so that compiling, fetching the models and
+ * resolving the modules reuse the same connection. Connections are released when the session is closed.
+ */
+public class GradleSession {
+
+    private final Map<String, ProjectConnection> connections = new LinkedHashMap<String, ProjectConnection>();
+
+    private boolean closed = false;
+
+    private int opened = 0;
+
+    public synchronized ProjectConnection connect(File projectDir, GradleConnector connector)
+            throws ConfigurationException {
+        if (closed) {
+            throw new IllegalStateException("The gradle session is already closed");
+        }
+        String key = null;
+        try {
+            key = projectDir.getCanonicalPath();
+        } catch (IOException e) {
+            throw new ConfigurationException("Error resolving the project directory " + projectDir, e);
+        }
+        ProjectConnection connection = connections.get(key);
+        if (connection == null) {
+            connection = connector.connect();
+            connections.put(key, connection);
+            opened++;
+        }
+        return connection;
+    }
+
+    /**
+     * Returns the number of connections opened by the session.
+     */
+    public synchronized int getOpenedConnections() {
+        return opened;
+    }
+
+    public synchronized void close() {
+        closed = true;
+        RuntimeException error = null;
+        Iterator<ProjectConnection> it = connections.values().iterator();
+        while (it.hasNext()) {
+            try {
+                it.next().close();
+            } catch (RuntimeException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        connections.clear();
+        if (error != null) {
+            throw error;
+        }
+    }
+}
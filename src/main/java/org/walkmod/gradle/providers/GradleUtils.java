@@ -1,263 +1,344 @@
 package org.walkmod.gradle.providers;
 
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.Enumeration;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipFile;
 
 import org.apache.commons.io.FileUtils;
 import org.gradle.tooling.BuildLauncher;
+import org.gradle.tooling.GradleConnectionException;
 import org.gradle.tooling.ProjectConnection;
 import org.walkmod.conf.ConfigurationException;
 
 public class GradleUtils {
 
-    public int getAndroidVersion(String line) {
-        Pattern p = Pattern.compile("[0-9]+");
-        Matcher m = p.matcher(line);
-        Integer value = null;
-        while (m.find()) {
-            value = Integer.parseInt(m.group());
-        }
-        if (value == null) {
-            throw new ConfigurationException(
-                    "Invalid compileSdkVersion (" + line + "). Please provide an integer value");
+    private static final String INIT_SCRIPT = "walkmod-dependencies.gradle";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static File initScript = null;
+
+    private boolean structuredDependencies = true;
+
+    private int threads = ParallelTasks.getDefaultThreads();
+
+    private ParallelTasks parallelTasks = null;
+
+    private AarCache aarCache = null;
+
+    private File cacheIndexDir = null;
+
+    private GradleMetrics metrics = new GradleMetrics();
+
+    public void setStructuredDependencies(boolean structuredDependencies) {
+        this.structuredDependencies = structuredDependencies;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Shared pool that resolves the artifacts, instead of a pool of the configured number of threads per call.
+     */
+    public void setParallelTasks(ParallelTasks parallelTasks) {
+        this.parallelTasks = parallelTasks;
+    }
+
+    public void setAarCache(AarCache aarCache) {
+        this.aarCache = aarCache;
+    }
+
+    /**
+     * Directory where the index of the Gradle cache is persisted between runs. The index is only kept in memory if
+     * it is not set.
+     */
+    public void setCacheIndexDir(File cacheIndexDir) {
+        this.cacheIndexDir = cacheIndexDir;
+    }
+
+    public void setMetrics(GradleMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public AarCache getAarCache() {
+        if (aarCache == null) {
+            aarCache = new AarCache(new File(System.getProperty("user.home"),
+                    ".walkmod" + File.separator + "gradle" + File.separator + "aar"));
+            aarCache.setMetrics(metrics);
         }
-        return value;
+        return aarCache;
+    }
+
+    public int getAndroidVersion(String line) {
+        return AndroidSdk.parseVersion(line);
     }
 
     public Integer getCompileAndroidSDKVersion(File projectDir) {
-        File cfg = new File(projectDir, "build.gradle");
-        Integer version = null;
-        Integer compileSDKVersion = null;
-        try {
-            List<String> cfgContent = FileUtils.readLines(cfg);
-            Iterator<String> it = cfgContent.iterator();
-            while (it.hasNext() && compileSDKVersion == null) {
-                String line = it.next();
-                int index = line.indexOf("minSdkVersion ");
-                if (index != -1) {
-
-                    version = getAndroidVersion(line.substring(index + "minSdkVersion ".length()).trim());
-                } else {
-                    index = line.indexOf("compileSdkVersion ");
-                    if (index != -1) {
+        return AndroidSdk.getCompileSdkVersion(projectDir);
+    }
 
-                        compileSDKVersion = getAndroidVersion(
-                                line.substring(index + "compileSdkVersion ".length()).trim());
+    public List<String> getDepsCoordinates(ProjectConnection connection, File buildFile) {
+        return getDepsCoordinates(connection, buildFile, null, null);
+    }
 
-                    }
+    /**
+     * Returns the dependencies of an Android project. They are resolved by an injected init script, and only if it
+     * does not find the expected configurations (or the build fails), they are parsed from the dependencies report.
+     */
+    public List<String> getDepsCoordinates(ProjectConnection connection, File buildFile, String projectPath,
+            String flavor) {
+        if (structuredDependencies) {
+            try {
+                List<String> coordinates = getResolvedCoordinates(connection, buildFile, projectPath, flavor);
+                if (coordinates != null) {
+                    return coordinates;
                 }
+            } catch (GradleConnectionException e) {
+                System.err.println("Error resolving the dependencies with the walkmod init script ("
+                        + e.getMessage() + "). Parsing the dependencies report instead.");
             }
-            if (compileSDKVersion != null) {
-                version = compileSDKVersion;
-            }
-
-        } catch (IOException e) {
-            throw new ConfigurationException("Error reading the build.gradle", e.getCause());
         }
-        return version;
+        metrics.add("dependencyReports", 1);
+        return getReportedCoordinates(connection, buildFile, projectPath);
     }
-    
-    
-    public List<String> getDepsCoordinates(ProjectConnection connection, File buildFile) {
+
+    public List<String> getResolvedCoordinates(ProjectConnection connection, File buildFile, String projectPath,
+            String flavor) throws ConfigurationException {
         BuildLauncher launcher = connection.newBuild();
+        List<String> arguments = new LinkedList<String>();
         if (buildFile != null) {
-            launcher.withArguments("-b", buildFile.getAbsolutePath());
+            arguments.add("-b");
+            arguments.add(buildFile.getAbsolutePath());
+        }
+        arguments.add("--init-script");
+        arguments.add(getInitScript().getAbsolutePath());
+        if (flavor != null) {
+            arguments.add("-PwalkmodFlavor=" + flavor);
         }
-        launcher.forTasks("dependencies");
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        launcher.setStandardOutput(bos);
+        launcher.withArguments(arguments.toArray(new String[arguments.size()]));
+        launcher.forTasks(getTaskPath(projectPath, "walkmodDependencies"));
+        ResolvedCoordinatesParser parser = new ResolvedCoordinatesParser();
+        launcher.setStandardOutput(parser);
         launcher.setStandardError(System.err);
-        launcher.run();
-        String content = bos.toString();
-        String[] lines = content.split("\\n");
-        List<String> coordinates = new LinkedList<String>();
-        for (int i = 0; i < lines.length; i++) {
-            if (lines[i].startsWith("compile") || lines[i].startsWith("provided")) {
-                if (i + 1 < lines.length && !lines[i + 1].startsWith("No dependencies")) {
-                    int j = i + 1;
-                    String prefix = null;
-                    String nextGoal = "debugApk";
-                    if (lines[i].startsWith("provided")) {
-                        nextGoal = "releaseApk";
-                    }
-                    while (j < lines.length && !lines[j].startsWith(nextGoal)) {
-                        int index = lines[j].lastIndexOf("--");
-                        if (index != -1) {
-                            prefix = lines[j].substring(0, index + 2);
-
-                            if (lines[j].length() > prefix.length()) {
-
-                                String artifact = lines[j].substring(prefix.length()).trim();
-                                if (!artifact.endsWith("(*)")) {
-                                    int dynamicVersionIndex = artifact.indexOf("->");
-                                    if (dynamicVersionIndex != -1) {
-                                        String artifactName = artifact.substring(0, artifact.lastIndexOf(":")).trim();
-                                        String version = artifact.substring(dynamicVersionIndex + 2).trim();
-                                        artifact = artifactName + ":" + version;
-                                    }
-                                    coordinates.add(artifact);
-                                }
+        try {
+            launcher.run();
+        } finally {
+            parser.close();
+        }
+        return parser.getCoordinates();
+    }
 
-                            }
-                        }
-                        j++;
-                    }
+    /**
+     * Parses the output of the walkmod init script. Returns null if no configuration was resolved.
+     */
+    public List<String> parseResolvedCoordinates(String content) {
+        ResolvedCoordinatesParser parser = new ResolvedCoordinatesParser();
+        byte[] bytes = content.getBytes(UTF8);
+        parser.write(bytes, 0, bytes.length);
+        parser.close();
+        return parser.getCoordinates();
+    }
 
+    private static synchronized File getInitScript() throws ConfigurationException {
+        if (initScript == null || !initScript.exists()) {
+            InputStream is = GradleUtils.class.getResourceAsStream(INIT_SCRIPT);
+            if (is == null) {
+                throw new ConfigurationException("Missing resource " + INIT_SCRIPT);
+            }
+            try {
+                File script = File.createTempFile("walkmod-dependencies", ".gradle");
+                script.deleteOnExit();
+                FileUtils.copyInputStreamToFile(is, script);
+                initScript = script;
+            } catch (IOException e) {
+                throw new ConfigurationException("Error writing the walkmod init script", e);
+            } finally {
+                try {
+                    is.close();
+                } catch (IOException e) {
                 }
             }
         }
-        return coordinates;
+        return initScript;
     }
-    
-    
-    public void unzipAAR(String zipFilePath, String destDirectory) throws IOException {
+
+    public List<String> getReportedCoordinates(ProjectConnection connection, File buildFile, String projectPath) {
+        BuildLauncher launcher = connection.newBuild();
+        if (buildFile != null) {
+            launcher.withArguments("-b", buildFile.getAbsolutePath());
+        }
+        launcher.forTasks(getTaskPath(projectPath, "dependencies"));
+        DependencyReportParser parser = new DependencyReportParser();
+        launcher.setStandardOutput(parser);
+        launcher.setStandardError(System.err);
+        try {
+            launcher.run();
+        } finally {
+            parser.close();
+        }
+        return parser.getCoordinates();
+    }
+
+    /**
+     * Parses the compile and provided dependencies of the dependencies report of an Android project.
+     */
+    public List<String> parseReportedCoordinates(String content) {
+        DependencyReportParser parser = new DependencyReportParser();
+        byte[] bytes = content.getBytes(UTF8);
+        parser.write(bytes, 0, bytes.length);
+        parser.close();
+        return parser.getCoordinates();
+    }
+
+    /**
+     * Extracts the jars of an aar file and returns the number of bytes written.
+     */
+    public long unzipAAR(String zipFilePath, String destDirectory) throws IOException {
         File destDir = new File(destDirectory);
         if (!destDir.exists()) {
-            destDir.mkdir();
+            destDir.mkdirs();
         }
-        ZipInputStream zipIn = new ZipInputStream(new FileInputStream(zipFilePath));
-        ZipEntry entry = zipIn.getNextEntry();
-        // iterates over entries in the zip file
-        while (entry != null) {
-            String filePath = destDirectory + File.separator + entry.getName();
-            if (!entry.isDirectory()) {
-                if (entry.getName().endsWith(".jar")) {
-                    // if the entry is a file, extracts it
-                    extractFile(zipIn, filePath);
+        long bytes = 0;
+        ZipFile zip = new ZipFile(zipFilePath);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            // iterates over entries in the zip file
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                File file = new File(destDir, entry.getName());
+                if (!entry.isDirectory()) {
+                    if (entry.getName().endsWith(".jar")) {
+                        // if the entry is a file, extracts it
+                        file.getParentFile().mkdirs();
+                        bytes += extractFile(zip, entry, file, buffer);
+                    }
+                } else {
+                    if (entry.getName().endsWith("jars/") || entry.getName().endsWith("libs/")) {
+                        file.mkdirs();
+                    }
                 }
-            } else {
-                if (entry.getName().endsWith("jars/") || entry.getName().endsWith("libs/")) {
-                    File dir = new File(filePath);
-                    dir.mkdir();
+            }
+        } finally {
+            zip.close();
+        }
+        return bytes;
+    }
+
+    private long extractFile(ZipFile zip, ZipEntry entry, File file, byte[] buffer) throws IOException {
+        long bytes = 0;
+        InputStream is = zip.getInputStream(entry);
+        try {
+            FileOutputStream os = new FileOutputStream(file);
+            try {
+                int read = 0;
+                while ((read = is.read(buffer)) != -1) {
+                    os.write(buffer, 0, read);
+                    bytes += read;
                 }
+            } finally {
+                os.close();
             }
-            zipIn.closeEntry();
-            entry = zipIn.getNextEntry();
+        } finally {
+            is.close();
         }
-        zipIn.close();
+        return bytes;
     }
-    
-    
-    private void extractFile(ZipInputStream zipIn, String filePath) throws IOException {
-        BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(filePath));
-        byte[] bytesIn = new byte[4096];
-        int read = 0;
-        while ((read = zipIn.read(bytesIn)) != -1) {
-            bos.write(bytesIn, 0, read);
+
+    private Artifact findArtifact(GradleCacheIndex index, String coordinate) {
+        String[] parts = coordinate.split(":");
+        if (parts.length != 3) {
+            return null;
+        }
+        GradleCacheIndex.Version version = index.find(parts[0], parts[1], parts[2]);
+        if (version == null) {
+            //Trying inside the android m2 extras
+            AndroidSdk sdk = AndroidSdk.get();
+            if (sdk != null) {
+                File file = sdk.findArtifact(parts[0], parts[1], parts[2]);
+                if (file != null) {
+                    return new Artifact(file, file.getName().endsWith(".aar"));
+                }
+            }
+            metrics.add("unresolvedCoordinates", 1);
+        } else if (version.getFile() != null) {
+            File file = version.getFile();
+            return new Artifact(file, file.getName().endsWith(".aar"));
         }
-        bos.close();
+        return null;
     }
-    
+
+    /**
+     * Resolves every coordinate, and extracts the jars of the aar files, in parallel with the shared pool or the
+     * configured number of threads. The files are returned in the order of the coordinates.
+     */
     public Collection<File> resolveArtifacts(String userHomeDir, List<String> coordinates) throws ConfigurationException {
         Collection<File> result = new LinkedList<File>();
-      
-        GradleUtils gradleUtils = new GradleUtils();
         if (coordinates != null) {
             File aux = new File(userHomeDir, "caches" + File.separator + "modules-2" + File.separator + "files-2.1");
-            for (String coordinate : coordinates) {
-                String[] parts = coordinate.split(":");
-                if (parts.length == 3) {
-                    File groupIdDir = new File(aux, parts[0]);
-                    File artifactIdDir = new File(groupIdDir, parts[1]);
-                    File versionDir = new File(artifactIdDir, parts[2]);
-                    File[] subdirs = versionDir.listFiles();
-                    boolean found = false;
-                    if (subdirs == null) {
-                        //Trying inside the android m2 extras
-                        String androidHome = System.getenv("ANDROID_HOME");
-                        if (androidHome != null && !"".equals(androidHome)) {
-                            File androidHomeFile = new File(androidHome);
-                            File repo = null;
-                            if (parts[0].contains("google")) {
-                                repo = new File(androidHomeFile,
-                                        "extras" + File.separator + "google" + File.separator + "m2repository");
-                            } else {
-                                repo = new File(androidHomeFile,
-                                        "extras" + File.separator + "android" + File.separator + "m2repository");
-                            }
-                            groupIdDir = new File(repo, resolvePath(parts[0]));
-                            artifactIdDir = new File(groupIdDir, parts[1]);
-                            versionDir = new File(artifactIdDir, parts[2]);
-                            File aarFile = new File(versionDir, parts[1] + "-" + parts[2] + ".aar");
-                            if (aarFile.exists()) {
-                                try {
-                                    File jarClasses = new File(versionDir, "classes.jar");
-                                    //if (!jarClasses.exists()) {
-                                    gradleUtils.unzipAAR(aarFile.getAbsolutePath(), versionDir.getAbsolutePath());
-                                    //}
-                                    result.add(jarClasses);
-                                    File libFolder = new File(versionDir, "libs");
-                                    if (libFolder.exists()) {
-
-                                        subdirs = libFolder.listFiles();
-                                        for (File lib : subdirs) {
-                                            result.add(lib);
-                                        }
-                                    }
-                                } catch (IOException e) {
-                                    throw new ConfigurationException(
-                                            "Error extracting the aar file " + aarFile.getAbsolutePath(), e);
-                                }
-                            } else {
-                                File jarFile = new File(versionDir, parts[1] + "-" + parts[2] + ".jar");
-                                if (jarFile.exists()) {
-                                    result.add(jarFile);
-                                } else {
-                                    System.out.println(coordinate);
-                                }
-                            }
-                        }
-                    } else {
-                        for (int i = 0; i < subdirs.length && !found; i++) {
-                            File parentDir = subdirs[i];
-                            if (parentDir.isDirectory()) {
-                                File file = new File(parentDir, parts[1] + "-" + parts[2] + ".jar");
-                                if (file.exists()) {
-                                    result.add(file);
-                                    found = true;
-                                } else {
-                                    file = new File(parentDir, parts[1] + "-" + parts[2] + ".aar");
-                                    if (file.exists()) {
-                                        try {
-                                            File jarClasses = new File(parentDir, "classes.jar");
-                                            if (!jarClasses.exists()) {
-                                                gradleUtils.unzipAAR(file.getAbsolutePath(), parentDir.getAbsolutePath());
-                                            }
-                                            result.add(jarClasses);
-                                            File libFolder = new File(parentDir, "libs");
-                                            if (libFolder.exists()) {
-                                                File[] deps = libFolder.listFiles();
-                                                for (File lib : deps) {
-                                                    result.add(lib);
-                                                }
-                                            }
-                                            found = true;
-                                        } catch (IOException e) {
-                                            throw new ConfigurationException("Error extracting aar", e);
-                                        }
-                                    }
-                                }
+            final GradleCacheIndex index = GradleCacheIndex.get(aux, cacheIndexDir);
+            List<Callable<Artifact>> tasks = new LinkedList<Callable<Artifact>>();
+            for (final String coordinate : coordinates) {
+                tasks.add(new Callable<Artifact>() {
+                    @Override
+                    public Artifact call() throws Exception {
+                        Artifact artifact = findArtifact(index, coordinate);
+                        if (artifact != null && artifact.aar) {
+                            long start = metrics.start();
+                            try {
+                                artifact.extractDir = getAarCache().extract(artifact.file);
+                            } catch (IOException e) {
+                                throw new ConfigurationException("Error extracting the aar file "
+                                        + artifact.file.getAbsolutePath(), e);
+                            } finally {
+                                metrics.stop(GradleMetrics.AAR_EXTRACTION, start);
                             }
                         }
+                        return artifact;
                     }
+                });
+            }
+            List<Artifact> artifacts = null;
+            if (parallelTasks != null) {
+                artifacts = parallelTasks.invokeAll(tasks);
+            } else {
+                artifacts = ParallelTasks.invokeAll(tasks, threads);
+            }
+            try {
+                index.save();
+            } catch (IOException e) {
+                // the index only speeds up the next runs
+                System.err.println("Error writing the index of the Gradle cache: " + e.getMessage());
+            }
+            for (Artifact artifact : artifacts) {
+                if (artifact != null) {
+                    artifact.addFiles(result);
+                    metrics.add("artifacts", 1);
                 }
             }
+            metrics.add("coordinates", coordinates.size());
         }
         return result;
     }
-    
+
+    public String getTaskPath(String projectPath, String task) {
+        if (projectPath == null || ":".equals(projectPath)) {
+            return task;
+        }
+        return projectPath + ":" + task;
+    }
 
     public String resolvePath(String groupId){
        return groupId.replaceAll("\\.", getFileSeparator());
@@ -273,35 +354,42 @@ public class GradleUtils {
     
     
     public File getAndroidJar(Integer version) {
-        String androidHome = System.getenv("ANDROID_HOME");
-        if (androidHome != null && !"".equals(androidHome)) {
-
-            File jarDir = new File(androidHome, "platforms/");
-
-            if (jarDir.exists()) {
-                Integer versionNumber = null;
-                File[] files = jarDir.listFiles();
-                for (int i = 0; i < files.length; i++) {
-                    String fileName = files[i].getName();
-                    if (fileName.startsWith("android-")) {
-                        try {
-                            Integer aux = Integer.parseInt(fileName.substring("android-".length()));
-                            if (aux >= version) {
-                                if (versionNumber == null || versionNumber > aux) {
-                                    versionNumber = aux;
-                                }
-                            }
-                        } catch (NumberFormatException e) {
+        AndroidSdk sdk = AndroidSdk.get();
+        if (sdk == null) {
+            return null;
+        }
+        return sdk.getAndroidJar(version);
+    }
 
-                        }
-                    }
-                }
-                if (versionNumber != null) {
-                    return (new File(new File(jarDir, "android-" + versionNumber), "android.jar"));
+    /**
+     * A jar, or an aar whose jars are extracted into extractDir.
+     */
+    private static class Artifact {
+
+        private final File file;
+
+        private final boolean aar;
+
+        private File extractDir;
+
+        public Artifact(File file, boolean aar) {
+            this.file = file;
+            this.aar = aar;
+        }
+
+        public void addFiles(Collection<File> result) {
+            if (!aar) {
+                result.add(file);
+                return;
+            }
+            result.add(new File(extractDir, "classes.jar"));
+            File[] libs = new File(extractDir, "libs").listFiles();
+            if (libs != null) {
+                for (File lib : libs) {
+                    result.add(lib);
                 }
             }
         }
-        return null;
     }
 
 }
@@ -0,0 +1,388 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.providers;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.Manifest;
+
+/**
+ * Class loader that indexes the packages of every classpath entry when it is created, so that a class or a resource
+ * is only searched in the entries that contain its package, instead of walking the whole classpath. It is parallel
+ * capable: lookups only lock the name of the class, so concurrent visitors resolve different types at the same time.
+ */
+public class IndexedClassLoader extends URLClassLoader {
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private static final ClassPathEntry[] NO_ENTRIES = new ClassPathEntry[0];
+
+    private static final String[] PLATFORM_PACKAGES = { "java.", "javax.", "sun.", "com.sun.", "jdk.", "org.w3c.dom.",
+            "org.xml.sax.", "org.ietf.jgss.", "org.omg." };
+
+    private final ConcurrentMap<String, Boolean> misses = new ConcurrentHashMap<String, Boolean>();
+
+    private final ConcurrentMap<String, Boolean> parentMisses = new ConcurrentHashMap<String, Boolean>();
+
+    private final AtomicLong definedBytes = new AtomicLong();
+
+    private final List<ClassPathEntry> entries;
+
+    private final Map<String, ClassPathEntry[]> packages;
+
+    private final Closeable closer;
+
+    public IndexedClassLoader(List<File> files) throws IOException {
+        this(files, getSystemClassLoader());
+    }
+
+    public IndexedClassLoader(List<File> files, ClassLoader parent) throws IOException {
+        this(files, parent, null);
+    }
+
+    /**
+     * Reads the jars through the {@link JarIndex} files of the given directory, which are created on the first run
+     * and reused while the jars do not change. The jars are opened directly if the directory is null.
+     */
+    public IndexedClassLoader(List<File> files, ClassLoader parent, File indexDir) throws IOException {
+        this(parent, open(files, indexDir));
+    }
+
+    protected IndexedClassLoader(ClassLoader parent, List<ClassPathEntry> entries) throws IOException {
+        super(getURLs(entries), parent);
+        this.entries = entries;
+        this.closer = new EntriesCloser(entries);
+        this.packages = index(entries);
+    }
+
+    private static List<ClassPathEntry> open(List<File> files, File indexDir) throws IOException {
+        List<ClassPathEntry> entries = new ArrayList<ClassPathEntry>(files.size());
+        for (File file : files) {
+            if (file.isDirectory()) {
+                entries.add(new DirectoryClassPathEntry(file));
+            } else if (file.isFile()) {
+                if (indexDir != null) {
+                    try {
+                        entries.add(new MappedJarClassPathEntry(file,
+                                MappedJarClassPathEntry.getIndexFile(indexDir, file)));
+                        continue;
+                    } catch (IOException e) {
+                        // e.g. a zip64 file: it is opened as a jar file
+                    }
+                }
+                try {
+                    entries.add(new JarClassPathEntry(file));
+                } catch (IOException e) {
+                    // not a zip file: URLClassLoader ignores them too
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static URL[] getURLs(List<ClassPathEntry> entries) {
+        URL[] urls = new URL[entries.size()];
+        int i = 0;
+        for (ClassPathEntry entry : entries) {
+            urls[i++] = entry.getURL();
+        }
+        return urls;
+    }
+
+    private static Map<String, ClassPathEntry[]> index(List<ClassPathEntry> entries) throws IOException {
+        Map<String, List<ClassPathEntry>> index = new HashMap<String, List<ClassPathEntry>>();
+        for (ClassPathEntry entry : entries) {
+            for (String pkg : entry.getPackages()) {
+                List<ClassPathEntry> owners = index.get(pkg);
+                if (owners == null) {
+                    owners = new LinkedList<ClassPathEntry>();
+                    index.put(pkg, owners);
+                }
+                owners.add(entry);
+            }
+        }
+        Map<String, ClassPathEntry[]> result = new HashMap<String, ClassPathEntry[]>(index.size() * 2);
+        for (Map.Entry<String, List<ClassPathEntry>> entry : index.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().toArray(new ClassPathEntry[entry.getValue().size()]));
+        }
+        return result;
+    }
+
+    protected ClassPathEntry[] getEntries(String path) {
+        ClassPathEntry[] owners = packages.get(JarClassPathEntry.getPackage(path));
+        if (owners == null) {
+            return NO_ENTRIES;
+        }
+        return owners;
+    }
+
+    /**
+     * Child-first lookup, except for the packages of the platform, which are always loaded by the parent. Misses
+     * are remembered, so looking up a missing class again does not read the classpath nor throw from the parent.
+     */
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        Class<?> result = null;
+        synchronized (getClassLoadingLock(name)) {
+            result = findLoadedClass(name);
+            if (result == null) {
+                if (isPlatformClass(name)) {
+                    result = findParentClass(name);
+                    if (result == null && !name.startsWith("java.")) {
+                        result = findLocalClass(name);
+                    }
+                } else {
+                    try {
+                        result = findLocalClass(name);
+                    } catch (LinkageError e) {
+                        // e.g. a missing super class: the parent might still be able to load it
+                        result = findParentClass(name);
+                        if (result == null) {
+                            throw e;
+                        }
+                    }
+                    if (result == null) {
+                        result = findParentClass(name);
+                    }
+                }
+            }
+        }
+        if (result == null) {
+            throw new MissingClassException(name);
+        }
+        if (resolve) {
+            resolveClass(result);
+        }
+        return result;
+    }
+
+    @Override
+    public Class<?> loadClass(String name) throws ClassNotFoundException {
+        return loadClass(name, false);
+    }
+
+    protected boolean isPlatformClass(String name) {
+        for (String prefix : PLATFORM_PACKAGES) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Class<?> findParentClass(String name) {
+        if (parentMisses.containsKey(name)) {
+            return null;
+        }
+        try {
+            ClassLoader parent = getParent();
+            if (parent == null) {
+                return Class.forName(name, false, null);
+            }
+            return parent.loadClass(name);
+        } catch (ClassNotFoundException e) {
+            parentMisses.put(name, Boolean.TRUE);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the class defined from the classpath entries, or null if they do not contain it. A class that cannot
+     * be defined throws its LinkageError, and is not remembered as missing.
+     */
+    protected Class<?> findLocalClass(String name) {
+        if (misses.containsKey(name)) {
+            return null;
+        }
+        String path = name.replace('.', '/').concat(".class");
+        for (ClassPathEntry entry : getEntries(path)) {
+            try {
+                byte[] bytes = entry.getBytes(path);
+                if (bytes != null) {
+                    return defineClass(name, bytes, entry);
+                }
+            } catch (IOException e) {
+                // unreadable entry: the class is searched in the following ones
+            }
+        }
+        misses.put(name, Boolean.TRUE);
+        return null;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        Class<?> result = findLocalClass(name);
+        if (result == null) {
+            throw new MissingClassException(name);
+        }
+        return result;
+    }
+
+    protected Class<?> defineClass(String name, byte[] bytes, ClassPathEntry entry) {
+        int index = name.lastIndexOf('.');
+        if (index != -1) {
+            String pkgName = name.substring(0, index);
+            if (getPackage(pkgName) == null) {
+                try {
+                    Manifest manifest = null;
+                    if (entry instanceof JarClassPathEntry) {
+                        manifest = ((JarClassPathEntry) entry).getManifest();
+                    } else if (entry instanceof MappedJarClassPathEntry) {
+                        manifest = ((MappedJarClassPathEntry) entry).getManifest();
+                    }
+                    if (manifest != null) {
+                        definePackage(pkgName, manifest, entry.getURL());
+                    } else {
+                        definePackage(pkgName, null, null, null, null, null, null, null);
+                    }
+                } catch (IOException e) {
+                    definePackage(pkgName, null, null, null, null, null, null, null);
+                } catch (IllegalArgumentException e) {
+                    // already defined by a concurrent lookup
+                }
+            }
+        }
+        Class<?> result = defineClass(name, bytes, 0, bytes.length, new CodeSource(entry.getURL(),
+                (CodeSigner[]) null));
+        definedBytes.addAndGet(bytes.length);
+        return result;
+    }
+
+    /**
+     * Returns the size of the bytecode of the classes defined by this loader, as an estimate of its memory.
+     */
+    public long getDefinedBytes() {
+        return definedBytes.get();
+    }
+
+    @Override
+    public URL findResource(String name) {
+        for (ClassPathEntry entry : getEntries(name)) {
+            try {
+                URL url = entry.getResource(name);
+                if (url != null) {
+                    return url;
+                }
+            } catch (IOException e) {
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Enumeration<URL> findResources(String name) throws IOException {
+        List<URL> urls = new LinkedList<URL>();
+        for (ClassPathEntry entry : getEntries(name)) {
+            URL url = entry.getResource(name);
+            if (url != null) {
+                urls.add(url);
+            }
+        }
+        return Collections.enumeration(urls);
+    }
+
+    /**
+     * Returns what {@link #close()} releases, without a reference to this loader, so that it can be released once
+     * the loader is garbage collected.
+     */
+    public Closeable getCloser() {
+        return closer;
+    }
+
+    /**
+     * Releases the jar files of the classpath.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        try {
+            closer.close();
+        } catch (IOException e) {
+            error = e;
+        }
+        try {
+            super.close();
+        } catch (IOException e) {
+            if (error == null) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private static class EntriesCloser implements Closeable {
+
+        private final List<ClassPathEntry> entries;
+
+        public EntriesCloser(List<ClassPathEntry> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException error = null;
+            for (ClassPathEntry entry : entries) {
+                try {
+                    entry.close();
+                } catch (IOException e) {
+                    if (error == null) {
+                        error = e;
+                    }
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+
+    /**
+     * Thrown for classes that neither the classpath nor the parent contain. It does not fill its stack trace,
+     * since lookups of missing classes are frequent while resolving types.
+     */
+    private static class MissingClassException extends ClassNotFoundException {
+
+        private static final long serialVersionUID = 1L;
+
+        public MissingClassException(String name) {
+            super(name);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.providers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.io.IOUtils;
+
+public class JarClassPathEntry implements ClassPathEntry {
+
+    private final File file;
+
+    private final URL url;
+
+    private final JarFile jar;
+
+    public JarClassPathEntry(File file) throws IOException {
+        this.file = file;
+        this.url = file.toURI().toURL();
+        this.jar = new JarFile(file);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public URL getURL() {
+        return url;
+    }
+
+    public Manifest getManifest() throws IOException {
+        return jar.getManifest();
+    }
+
+    @Override
+    public Set<String> getPackages() {
+        Set<String> packages = new HashSet<String>();
+        Enumeration<? extends ZipEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            if (!entry.isDirectory()) {
+                packages.add(getPackage(entry.getName()));
+            }
+        }
+        return packages;
+    }
+
+    @Override
+    public byte[] getBytes(String path) throws IOException {
+        ZipEntry entry = jar.getEntry(path);
+        if (entry == null || entry.isDirectory()) {
+            return null;
+        }
+        InputStream is = jar.getInputStream(entry);
+        try {
+            return IOUtils.toByteArray(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    @Override
+    public URL getResource(String path) throws IOException {
+        ZipEntry entry = jar.getEntry(path);
+        if (entry == null) {
+            return null;
+        }
+        return new URL("jar:" + url + "!/" + path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        jar.close();
+    }
+
+    public static String getPackage(String path) {
+        int index = path.lastIndexOf('/');
+        if (index == -1) {
+            return "";
+        }
+        return path.substring(0, index);
+    }
+}
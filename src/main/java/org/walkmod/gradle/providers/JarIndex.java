@@ -0,0 +1,374 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.providers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Index of the files of a jar, stored next to the other caches of the provider and read through a memory mapping.
+ * It keeps the name, the offset of the local header, the sizes and the compression method of every file, read once
+ * from the central directory of the jar, so later runs find a file without opening the jar. An index is only valid
+ * for the size and modification time of the jar it was built from.
+ * <p>
+ * Layout: a header, the file records sorted by name, the package records and the UTF-8 names they point to.
+ */
+public class JarIndex {
+
+    private static final int MAGIC = 0x574a4958;
+
+    private static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 40;
+
+    private static final int RECORD_SIZE = 40;
+
+    private static final int PACKAGE_SIZE = 8;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+
+    private static final int CENTRAL_FILE_HEADER = 0x02014b50;
+
+    private static final long UNSIGNED_INT = 0xFFFFFFFFL;
+
+    private final MappedByteBuffer buffer;
+
+    private final int count;
+
+    private final int packageCount;
+
+    private final int namesOffset;
+
+    private JarIndex(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Invalid jar index");
+        }
+        this.count = buffer.getInt(24);
+        this.packageCount = buffer.getInt(28);
+        this.namesOffset = buffer.getInt(32);
+        int namesSize = buffer.getInt(36);
+        // e.g. a file truncated by a crash while it was written
+        if (count < 0 || packageCount < 0 || namesSize < 0
+                || namesOffset != HEADER_SIZE + (long) count * RECORD_SIZE + (long) packageCount * PACKAGE_SIZE
+                || buffer.capacity() != (long) namesOffset + namesSize) {
+            throw new IOException("Invalid jar index");
+        }
+    }
+
+    /**
+     * Maps the index of the jar, building it first if it does not exist, it is not valid or the jar has changed.
+     * Throws an IOException for the jars that it cannot index, such as zip64 files.
+     */
+    public static JarIndex open(File jar, File indexFile) throws IOException {
+        JarIndex index = map(indexFile);
+        if (index == null || index.getJarSize() != jar.length() || index.getJarModified() != jar.lastModified()) {
+            write(jar, indexFile);
+            index = map(indexFile);
+            if (index == null) {
+                throw new IOException("Error reading the index of " + jar.getAbsolutePath());
+            }
+        }
+        return index;
+    }
+
+    private static JarIndex map(File indexFile) throws IOException {
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            // the mapping remains valid after closing the channel
+            JarIndex index = new JarIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            return index;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            file.close();
+        }
+    }
+
+    public long getJarSize() {
+        return buffer.getLong(8);
+    }
+
+    public long getJarModified() {
+        return buffer.getLong(16);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Returns the position of the file in the index, or -1 if the jar does not contain it.
+     */
+    public int find(String path) {
+        byte[] name = path.getBytes(UTF8);
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int cmp = compare(middle, name);
+            if (cmp < 0) {
+                low = middle + 1;
+            } else if (cmp > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private int compare(int record, byte[] name) {
+        int base = HEADER_SIZE + record * RECORD_SIZE;
+        int offset = namesOffset + buffer.getInt(base);
+        int length = buffer.getInt(base + 4);
+        int max = Math.min(length, name.length);
+        for (int i = 0; i < max; i++) {
+            int cmp = (buffer.get(offset + i) & 0xff) - (name[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - name.length;
+    }
+
+    public long getLocalHeaderOffset(int record) {
+        return buffer.getLong(HEADER_SIZE + record * RECORD_SIZE + 8);
+    }
+
+    public long getCompressedSize(int record) {
+        return buffer.getLong(HEADER_SIZE + record * RECORD_SIZE + 16);
+    }
+
+    public long getSize(int record) {
+        return buffer.getLong(HEADER_SIZE + record * RECORD_SIZE + 24);
+    }
+
+    public int getMethod(int record) {
+        return buffer.getInt(HEADER_SIZE + record * RECORD_SIZE + 32);
+    }
+
+    public Set<String> getPackages() {
+        Set<String> packages = new HashSet<String>(packageCount * 2);
+        int base = HEADER_SIZE + count * RECORD_SIZE;
+        for (int i = 0; i < packageCount; i++) {
+            int offset = buffer.getInt(base + i * PACKAGE_SIZE);
+            int length = buffer.getInt(base + i * PACKAGE_SIZE + 4);
+            packages.add(getString(namesOffset + offset, length));
+        }
+        return packages;
+    }
+
+    private String getString(int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes, UTF8);
+    }
+
+    private static void write(File jar, File indexFile) throws IOException {
+        long size = jar.length();
+        long modified = jar.lastModified();
+        List<Record> records = readCentralDirectory(jar);
+        Collections.sort(records, new Comparator<Record>() {
+            @Override
+            public int compare(Record o1, Record o2) {
+                byte[] n1 = o1.name;
+                byte[] n2 = o2.name;
+                int max = Math.min(n1.length, n2.length);
+                for (int i = 0; i < max; i++) {
+                    int cmp = (n1[i] & 0xff) - (n2[i] & 0xff);
+                    if (cmp != 0) {
+                        return cmp;
+                    }
+                }
+                return n1.length - n2.length;
+            }
+        });
+        Set<String> packageNames = new HashSet<String>();
+        for (Record record : records) {
+            packageNames.add(JarClassPathEntry.getPackage(new String(record.name, UTF8)));
+        }
+        List<byte[]> packages = new ArrayList<byte[]>(packageNames.size());
+        int namesSize = 0;
+        for (Record record : records) {
+            namesSize += record.name.length;
+        }
+        for (String pkg : packageNames) {
+            byte[] bytes = pkg.getBytes(UTF8);
+            packages.add(bytes);
+            namesSize += bytes.length;
+        }
+        int namesOffset = HEADER_SIZE + records.size() * RECORD_SIZE + packages.size() * PACKAGE_SIZE;
+        ByteBuffer out = ByteBuffer.allocate(namesOffset + namesSize);
+        out.putInt(MAGIC).putInt(VERSION).putLong(size).putLong(modified);
+        out.putInt(records.size()).putInt(packages.size()).putInt(namesOffset).putInt(namesSize);
+        int nameOffset = 0;
+        for (Record record : records) {
+            out.putInt(nameOffset).putInt(record.name.length);
+            out.putLong(record.localHeaderOffset).putLong(record.compressedSize).putLong(record.size);
+            out.putInt(record.method).putInt(0);
+            nameOffset += record.name.length;
+        }
+        for (byte[] pkg : packages) {
+            out.putInt(nameOffset).putInt(pkg.length);
+            nameOffset += pkg.length;
+        }
+        for (Record record : records) {
+            out.put(record.name);
+        }
+        for (byte[] pkg : packages) {
+            out.put(pkg);
+        }
+        out.flip();
+
+        File parent = indexFile.getAbsoluteFile().getParentFile();
+        parent.mkdirs();
+        // unique among the threads and the processes that index the same jar
+        File tmp = File.createTempFile(indexFile.getName(), ".tmp", parent);
+        try {
+            RandomAccessFile file = new RandomAccessFile(tmp, "rw");
+            try {
+                FileChannel channel = file.getChannel();
+                while (out.hasRemaining()) {
+                    channel.write(out);
+                }
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        if (!tmp.renameTo(indexFile)) {
+            indexFile.delete();
+            if (!tmp.renameTo(indexFile)) {
+                tmp.delete();
+                throw new IOException("Error writing the jar index " + indexFile.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Reads the files of the central directory of the jar, without its directories.
+     */
+    private static List<Record> readCentralDirectory(File jar) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(jar, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            long length = channel.size();
+            int tailSize = (int) Math.min(length, 0xFFFF + 22);
+            ByteBuffer tail = read(channel, length - tailSize, tailSize);
+            int end = -1;
+            for (int i = tailSize - 22; i >= 0; i--) {
+                if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                    end = i;
+                    break;
+                }
+            }
+            if (end == -1) {
+                throw new IOException("Missing central directory in " + jar.getAbsolutePath());
+            }
+            int entries = tail.getShort(end + 10) & 0xFFFF;
+            long directorySize = tail.getInt(end + 12) & UNSIGNED_INT;
+            long directoryOffset = tail.getInt(end + 16) & UNSIGNED_INT;
+            if (entries == 0xFFFF || directoryOffset == UNSIGNED_INT || directorySize == UNSIGNED_INT) {
+                throw new IOException("Zip64 files are not indexed: " + jar.getAbsolutePath());
+            }
+            ByteBuffer directory = read(channel, directoryOffset, (int) directorySize);
+            List<Record> records = new ArrayList<Record>(entries);
+            int position = 0;
+            while (position + 46 <= directorySize && directory.getInt(position) == CENTRAL_FILE_HEADER) {
+                int method = directory.getShort(position + 10) & 0xFFFF;
+                long compressedSize = directory.getInt(position + 20) & UNSIGNED_INT;
+                long size = directory.getInt(position + 24) & UNSIGNED_INT;
+                int nameLength = directory.getShort(position + 28) & 0xFFFF;
+                int extraLength = directory.getShort(position + 30) & 0xFFFF;
+                int commentLength = directory.getShort(position + 32) & 0xFFFF;
+                long localHeaderOffset = directory.getInt(position + 42) & UNSIGNED_INT;
+                if (compressedSize == UNSIGNED_INT || size == UNSIGNED_INT || localHeaderOffset == UNSIGNED_INT) {
+                    throw new IOException("Zip64 files are not indexed: " + jar.getAbsolutePath());
+                }
+                byte[] name = new byte[nameLength];
+                for (int i = 0; i < nameLength; i++) {
+                    name[i] = directory.get(position + 46 + i);
+                }
+                if (nameLength > 0 && name[nameLength - 1] != '/') {
+                    records.add(new Record(name, localHeaderOffset, compressedSize, size, method));
+                }
+                position += 46 + nameLength + extraLength + commentLength;
+            }
+            return records;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Reads the given region of a file, in little endian order as every zip structure.
+     */
+    static ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        buffer.flip();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private static class Record {
+
+        private final byte[] name;
+
+        private final long localHeaderOffset;
+
+        private final long compressedSize;
+
+        private final long size;
+
+        private final int method;
+
+        public Record(byte[] name, long localHeaderOffset, long compressedSize, long size, int method) {
+            this.name = name;
+            this.localHeaderOffset = localHeaderOffset;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.method = method;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.providers;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.concurrent.Callable;
+
+import org.walkmod.conf.ConfigurationException;
+
+/**
+ * Class loader that builds the actual one on the first class or resource lookup, so that the chains which never
+ * resolve a type do not wait for the project to be compiled and resolved. If that fails, every lookup throws the
+ * same error.
+ */
+public class LazyClassLoader extends ClassLoader {
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private final Callable<ClassLoader> factory;
+
+    private volatile ClassLoader delegate;
+
+    private ConfigurationException error;
+
+    public LazyClassLoader(Callable<ClassLoader> factory) {
+        super(null);
+        this.factory = factory;
+    }
+
+    public boolean isInitialized() {
+        return delegate != null;
+    }
+
+    public ClassLoader getDelegate() throws ConfigurationException {
+        ClassLoader result = delegate;
+        if (result == null) {
+            synchronized (this) {
+                if (error != null) {
+                    throw error;
+                }
+                result = delegate;
+                if (result == null) {
+                    try {
+                        result = factory.call();
+                    } catch (ConfigurationException e) {
+                        error = e;
+                        throw e;
+                    } catch (Exception e) {
+                        error = new ConfigurationException("Error loading the classpath", e);
+                        throw error;
+                    }
+                    delegate = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        Class<?> type = getDelegate().loadClass(name);
+        if (resolve) {
+            resolveClass(type);
+        }
+        return type;
+    }
+
+    @Override
+    public URL getResource(String name) {
+        return getDelegate().getResource(name);
+    }
+
+    @Override
+    public Enumeration<URL> getResources(String name) throws IOException {
+        return getDelegate().getResources(name);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.providers;
+
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Output stream that decodes what Gradle writes as UTF-8 and parses it line by line, so the output is never held in
+ * memory.
+ */
+public abstract class LineParser extends OutputStream {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private byte[] line = new byte[256];
+
+    private int length = 0;
+
+    @Override
+    public void write(int b) {
+        if (b == '\n') {
+            endLine();
+        } else {
+            if (length == line.length) {
+                line = Arrays.copyOf(line, length * 2);
+            }
+            line[length++] = (byte) b;
+        }
+    }
+
+    /**
+     * Appends the bytes up to each line break at once, instead of one by one.
+     */
+    @Override
+    public void write(byte[] b, int off, int len) {
+        int start = off;
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            if (b[i] == '\n') {
+                append(b, start, i - start);
+                endLine();
+                start = i + 1;
+            }
+        }
+        append(b, start, end - start);
+    }
+
+    private void append(byte[] b, int off, int len) {
+        if (length + len > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, length + len));
+        }
+        System.arraycopy(b, off, line, length, len);
+        length += len;
+    }
+
+    @Override
+    public void close() {
+        if (length > 0) {
+            endLine();
+        }
+    }
+
+    private void endLine() {
+        String current = new String(line, 0, length, UTF8);
+        length = 0;
+        parseLine(current);
+    }
+
+    protected abstract void parseLine(String current);
+}
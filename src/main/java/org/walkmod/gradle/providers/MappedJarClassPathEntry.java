@@ -0,0 +1,175 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.providers;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Jar of the classpath whose files are found through a {@link JarIndex}. The jar is only opened to read the
+ * content of a file, so the jars that no lookup needs are never opened.
+ */
+public class MappedJarClassPathEntry implements ClassPathEntry {
+
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+
+    private final File file;
+
+    private final URL url;
+
+    private final JarIndex index;
+
+    private RandomAccessFile jar;
+
+    public MappedJarClassPathEntry(File file, File indexFile) throws IOException {
+        this.file = file;
+        this.url = file.toURI().toURL();
+        this.index = JarIndex.open(file, indexFile);
+    }
+
+    /**
+     * Returns the index file of a jar inside the given directory.
+     */
+    public static File getIndexFile(File indexDir, File jar) {
+        return new File(indexDir, Fingerprint.of(jar.getAbsolutePath()) + ".index");
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public boolean isOpen() {
+        synchronized (this) {
+            return jar != null;
+        }
+    }
+
+    @Override
+    public URL getURL() {
+        return url;
+    }
+
+    public Manifest getManifest() throws IOException {
+        byte[] bytes = getBytes(JarFile.MANIFEST_NAME);
+        if (bytes == null) {
+            return null;
+        }
+        return new Manifest(new ByteArrayInputStream(bytes));
+    }
+
+    @Override
+    public Set<String> getPackages() {
+        return index.getPackages();
+    }
+
+    @Override
+    public byte[] getBytes(String path) throws IOException {
+        int record = index.find(path);
+        if (record == -1) {
+            return null;
+        }
+        FileChannel channel = getChannel();
+        long offset = index.getLocalHeaderOffset(record);
+        ByteBuffer header = JarIndex.read(channel, offset, LOCAL_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_FILE_HEADER) {
+            throw new IOException("Invalid local header of " + path + " in " + file.getAbsolutePath());
+        }
+        // the extra field of the local header may differ from the one of the central directory
+        int nameLength = header.getShort(26) & 0xFFFF;
+        int extraLength = header.getShort(28) & 0xFFFF;
+        long dataOffset = offset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+        int compressedSize = (int) index.getCompressedSize(record);
+        int size = (int) index.getSize(record);
+        int method = index.getMethod(record);
+        if (method == ZipEntry.STORED) {
+            return read(channel, dataOffset, size);
+        }
+        if (method != ZipEntry.DEFLATED) {
+            throw new IOException("Unsupported compression method of " + path + " in " + file.getAbsolutePath());
+        }
+        // the inflater needs an extra byte when the zip header is missing
+        byte[] compressed = new byte[compressedSize + 1];
+        System.arraycopy(read(channel, dataOffset, compressedSize), 0, compressed, 0, compressedSize);
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            byte[] bytes = new byte[size];
+            int read = 0;
+            while (read < size && !inflater.finished()) {
+                int inflated = inflater.inflate(bytes, read, size - read);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += inflated;
+            }
+            if (read != size) {
+                throw new IOException("Truncated file " + path + " in " + file.getAbsolutePath());
+            }
+            return bytes;
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed file " + path + " in " + file.getAbsolutePath(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] read(FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer buffer = JarIndex.read(channel, position, size);
+        byte[] bytes = new byte[size];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private FileChannel getChannel() throws IOException {
+        synchronized (this) {
+            if (jar == null) {
+                jar = new RandomAccessFile(file, "r");
+            }
+            return jar.getChannel();
+        }
+    }
+
+    @Override
+    public URL getResource(String path) throws IOException {
+        if (index.find(path) == -1) {
+            return null;
+        }
+        return new URL("jar:" + url + "!/" + path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (jar != null) {
+                jar.close();
+                jar = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.providers;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Class loader of a module: its class directories are loaded by itself, and its jars by a loader of
+ * {@link SharedClassLoaders}, which is released when this one is closed. Loaders that are garbage collected without
+ * being closed release it when the next module loader is created.
+ */
+public class ModuleClassLoader extends IndexedClassLoader {
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private static final Set<ModuleReference> MODULES = new HashSet<ModuleReference>();
+
+    private static final ReferenceQueue<ModuleClassLoader> COLLECTED = new ReferenceQueue<ModuleClassLoader>();
+
+    private final Closeable closer;
+
+    final ModuleReference reference;
+
+    private ModuleClassLoader(List<File> directories, IndexedClassLoader parent) throws IOException {
+        super(directories, parent);
+        this.closer = new ModuleCloser(super.getCloser(), parent);
+        this.reference = new ModuleReference(this, closer, COLLECTED);
+        synchronized (MODULES) {
+            MODULES.add(reference);
+        }
+    }
+
+    /**
+     * Splits the classpath into the directories of the module and the shared jars. The directories are searched
+     * before the jars.
+     */
+    public static ModuleClassLoader create(List<File> files, File indexDir) throws IOException {
+        releaseCollected();
+        List<File> directories = new ArrayList<File>();
+        List<File> jars = new ArrayList<File>();
+        for (File file : files) {
+            if (file.isDirectory()) {
+                directories.add(file);
+            } else if (file.isFile()) {
+                jars.add(file);
+            }
+        }
+        IndexedClassLoader parent = SharedClassLoaders.acquire(jars, indexDir);
+        try {
+            return new ModuleClassLoader(directories, parent);
+        } catch (IOException e) {
+            SharedClassLoaders.release(parent);
+            throw e;
+        } catch (RuntimeException e) {
+            SharedClassLoaders.release(parent);
+            throw e;
+        }
+    }
+
+    /**
+     * Includes the classes of the shared loader of the jars.
+     */
+    @Override
+    public long getDefinedBytes() {
+        long bytes = super.getDefinedBytes();
+        if (getParent() instanceof IndexedClassLoader) {
+            bytes += ((IndexedClassLoader) getParent()).getDefinedBytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    public Closeable getCloser() {
+        return closer;
+    }
+
+    /**
+     * Releases the shared loaders of the module loaders that have been garbage collected without being closed.
+     */
+    static void releaseCollected() {
+        Reference<? extends ModuleClassLoader> reference = COLLECTED.poll();
+        while (reference != null) {
+            ModuleReference module = (ModuleReference) reference;
+            boolean tracked = false;
+            synchronized (MODULES) {
+                tracked = MODULES.remove(module);
+            }
+            if (tracked) {
+                try {
+                    module.closer.close();
+                } catch (IOException e) {
+                    System.err.println("Error closing the class loader: " + e.getMessage());
+                }
+            }
+            reference = COLLECTED.poll();
+        }
+    }
+
+    /**
+     * Releases the directories of the module and its reference to the shared loader.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (MODULES) {
+            if (MODULES.remove(reference)) {
+                // a cleared reference is not enqueued once the loader is collected
+                reference.clear();
+            }
+        }
+        try {
+            closer.close();
+        } finally {
+            super.close();
+        }
+    }
+
+    /**
+     * Weak reference to a module loader, with what has to be released once it is garbage collected.
+     */
+    static class ModuleReference extends WeakReference<ModuleClassLoader> {
+
+        private final Closeable closer;
+
+        public ModuleReference(ModuleClassLoader loader, Closeable closer, ReferenceQueue<ModuleClassLoader> queue) {
+            super(loader, queue);
+            this.closer = closer;
+        }
+    }
+
+    private static class ModuleCloser implements Closeable {
+
+        private final Closeable directories;
+
+        private final ClassLoader parent;
+
+        private boolean closed = false;
+
+        public ModuleCloser(Closeable directories, ClassLoader parent) {
+            this.directories = directories;
+            this.parent = parent;
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            try {
+                directories.close();
+            } finally {
+                SharedClassLoaders.release(parent);
+            }
+        }
+    }
+}
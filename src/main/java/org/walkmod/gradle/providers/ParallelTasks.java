@@ -0,0 +1,142 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.providers;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.walkmod.conf.ConfigurationException;
+
+/**
+ * Runs independent tasks on a bounded pool of daemon threads and returns their results in the order of the tasks.
+ * The same instance can be shared by nested calls: the calling thread runs the tasks that no thread of the pool has
+ * started yet, so a task that waits for its own subtasks never starves the pool, and the number of threads stays
+ * bounded by the size of the pool plus the callers.
+ */
+public class ParallelTasks implements Closeable {
+
+    private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+    private final ExecutorService executor;
+
+    public ParallelTasks(int threads) {
+        if (threads > 1) {
+            executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory());
+        } else {
+            executor = null;
+        }
+    }
+
+    public static int getDefaultThreads() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Runs the tasks on a pool created for them.
+     */
+    public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks, int threads)
+            throws ConfigurationException {
+        ParallelTasks parallelTasks = new ParallelTasks(Math.min(threads, tasks.size()));
+        try {
+            return parallelTasks.invokeAll(tasks);
+        } finally {
+            parallelTasks.close();
+        }
+    }
+
+    public <T> List<T> invokeAll(List<? extends Callable<T>> tasks) throws ConfigurationException {
+        List<T> results = new ArrayList<T>(tasks.size());
+        if (executor == null || tasks.size() <= 1) {
+            for (Callable<T> task : tasks) {
+                try {
+                    results.add(task.call());
+                } catch (Exception e) {
+                    throw rethrow(e);
+                }
+            }
+            return results;
+        }
+        List<FutureTask<T>> futures = new ArrayList<FutureTask<T>>(tasks.size());
+        for (Callable<T> task : tasks) {
+            FutureTask<T> future = new FutureTask<T>(task);
+            futures.add(future);
+            try {
+                executor.execute(future);
+            } catch (RejectedExecutionException e) {
+                // the caller runs it below
+            }
+        }
+        try {
+            for (FutureTask<T> future : futures) {
+                // does nothing if a thread of the pool has already started it
+                future.run();
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    throw rethrow(e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConfigurationException("Interrupted while resolving the gradle project", e);
+        } finally {
+            for (FutureTask<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable cause) {
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new ConfigurationException(cause.getMessage(), cause);
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final int pool = POOL_COUNTER.incrementAndGet();
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "walkmod-gradle-" + pool + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
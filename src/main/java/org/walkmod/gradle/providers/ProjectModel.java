@@ -0,0 +1,152 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.providers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.gradle.tooling.model.DomainObjectSet;
+import org.gradle.tooling.model.ExternalDependency;
+import org.gradle.tooling.model.GradleProject;
+import org.gradle.tooling.model.eclipse.EclipseProject;
+import org.gradle.tooling.model.eclipse.EclipseProjectDependency;
+
+/**
+ * What the provider needs to know about a project of the build to resolve its classpath. Unlike the tooling models,
+ * it is serializable, so it can be built in the daemon by {@link ClassPathAction}.
+ */
+public class ProjectModel implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String path;
+
+    private final File projectDirectory;
+
+    private final File buildDirectory;
+
+    private final List<File> classPath = new LinkedList<File>();
+
+    private final List<File> projectDependencies = new LinkedList<File>();
+
+    public ProjectModel(String path, File projectDirectory, File buildDirectory) {
+        this.path = path;
+        this.projectDirectory = projectDirectory;
+        this.buildDirectory = buildDirectory;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public File getProjectDirectory() {
+        return projectDirectory;
+    }
+
+    public File getBuildDirectory() {
+        return buildDirectory;
+    }
+
+    /**
+     * External dependencies of the project, only if it has been resolved through the Eclipse model.
+     */
+    public List<File> getClassPath() {
+        return classPath;
+    }
+
+    public List<File> getProjectDependencies() {
+        return projectDependencies;
+    }
+
+    /**
+     * Returns the models of every project of the build, keyed by their canonical directory. The first one is the
+     * given project.
+     */
+    public static Map<String, ProjectModel> collect(EclipseProject project) throws IOException {
+        Map<String, ProjectModel> models = new LinkedHashMap<String, ProjectModel>();
+        add(project, models);
+        EclipseProject root = project;
+        while (root.getParent() != null) {
+            root = root.getParent();
+        }
+        addAll(root, models);
+        return models;
+    }
+
+    private static void addAll(EclipseProject project, Map<String, ProjectModel> models) throws IOException {
+        add(project, models);
+        for (EclipseProject child : project.getChildren()) {
+            addAll(child, models);
+        }
+    }
+
+    private static void add(EclipseProject project, Map<String, ProjectModel> models) throws IOException {
+        String key = project.getProjectDirectory().getCanonicalPath();
+        if (models.containsKey(key)) {
+            return;
+        }
+        GradleProject gradleProject = project.getGradleProject();
+        ProjectModel model = new ProjectModel(gradleProject.getPath(), project.getProjectDirectory(),
+                gradleProject.getBuildDirectory());
+        for (ExternalDependency dependency : project.getClasspath()) {
+            model.classPath.add(dependency.getFile());
+        }
+        DomainObjectSet<? extends EclipseProjectDependency> modules = project.getProjectDependencies();
+        if (modules != null) {
+            Iterator<? extends EclipseProjectDependency> it = modules.iterator();
+            while (it.hasNext()) {
+                model.projectDependencies.add(it.next().getTargetProject().getProjectDirectory());
+            }
+        }
+        models.put(key, model);
+    }
+
+    /**
+     * Same as {@link #collect(EclipseProject)} for builds without the Eclipse model: the projects have neither
+     * external nor project dependencies.
+     */
+    public static Map<String, ProjectModel> collect(GradleProject project) throws IOException {
+        Map<String, ProjectModel> models = new LinkedHashMap<String, ProjectModel>();
+        add(project, models);
+        GradleProject root = project;
+        while (root.getParent() != null) {
+            root = root.getParent();
+        }
+        addAll(root, models);
+        return models;
+    }
+
+    private static void addAll(GradleProject project, Map<String, ProjectModel> models) throws IOException {
+        add(project, models);
+        for (GradleProject child : project.getChildren()) {
+            addAll(child, models);
+        }
+    }
+
+    private static void add(GradleProject project, Map<String, ProjectModel> models) throws IOException {
+        String key = project.getProjectDirectory().getCanonicalPath();
+        if (!models.containsKey(key)) {
+            models.put(key, new ProjectModel(project.getPath(), project.getProjectDirectory(),
+                    project.getBuildDirectory()));
+        }
+    }
+}
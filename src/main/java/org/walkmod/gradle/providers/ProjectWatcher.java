@@ -0,0 +1,448 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.providers;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.walkmod.conf.ConfigurationException;
+import org.walkmod.conf.entities.Configuration;
+
+/**
+ * Keeps the connection and the class loader of a project alive between walkmod runs in the same process. The
+ * sources and build scripts of the build are watched, and when they change the project is compiled again. If the
+ * compiled classes or the classpath changed, a new class loader replaces the previous one in every configuration
+ * that uses it, along with the metrics of the refresh.
+ */
+public class ProjectWatcher implements Closeable {
+
+    private static final Map<String, FutureTask<ProjectWatcher>> WATCHERS =
+            new HashMap<String, FutureTask<ProjectWatcher>>();
+
+    private final String key;
+
+    private final ClassLoaderConfigurationProvider provider;
+
+    private final GradleSession session = new GradleSession();
+
+    private final File rootDir;
+
+    private final long delay;
+
+    private final List<Configuration> configurations = new CopyOnWriteArrayList<Configuration>();
+
+    private volatile ClassLoader classLoader;
+
+    private String fingerprint;
+
+    private List<File> classPath;
+
+    private volatile List<Path> buildDirs = new LinkedList<Path>();
+
+    private final Set<RetiredLoader> retired = new HashSet<RetiredLoader>();
+
+    private final ReferenceQueue<ClassLoader> collected = new ReferenceQueue<ClassLoader>();
+
+    private WatchService watchService;
+
+    private Thread thread;
+
+    private volatile boolean closed = false;
+
+    private boolean stopped = false;
+
+    private ProjectWatcher(String key, ClassLoaderConfigurationProvider provider, File projectDir, long delay) {
+        this.key = key;
+        this.provider = provider;
+        this.rootDir = CompileState.getRootDir(projectDir.getAbsoluteFile());
+        this.delay = delay;
+        provider.setSession(session);
+    }
+
+    /**
+     * Returns the watcher of the given key, starting it with the provider if there is none yet. The key must cover
+     * every setting of the provider that changes the class loader, since the providers of an existing watcher are
+     * not used. The delay is the time without changes to wait for before refreshing the class loader.
+     * <p>
+     * The first build runs outside of the lock of the registry, so other projects can be watched or closed
+     * meanwhile. Concurrent callers with the same key wait for the same build.
+     */
+    public static ProjectWatcher get(final String key, final ClassLoaderConfigurationProvider provider,
+            final File projectDir, final long delay) throws ConfigurationException {
+        FutureTask<ProjectWatcher> future = null;
+        boolean owner = false;
+        synchronized (ProjectWatcher.class) {
+            future = WATCHERS.get(key);
+            if (future == null) {
+                future = new FutureTask<ProjectWatcher>(new Callable<ProjectWatcher>() {
+                    @Override
+                    public ProjectWatcher call() throws Exception {
+                        ProjectWatcher watcher = new ProjectWatcher(key, provider, projectDir, delay);
+                        try {
+                            watcher.start();
+                        } catch (RuntimeException e) {
+                            watcher.stop();
+                            throw e;
+                        }
+                        return watcher;
+                    }
+                });
+                WATCHERS.put(key, future);
+                owner = true;
+            }
+        }
+        if (owner) {
+            future.run();
+        }
+        ProjectWatcher watcher = null;
+        try {
+            watcher = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConfigurationException("Interrupted while starting the watch of " + projectDir, e);
+        } catch (ExecutionException e) {
+            remove(key, future);
+            if (e.getCause() instanceof ConfigurationException) {
+                throw (ConfigurationException) e.getCause();
+            }
+            throw new ConfigurationException("Error watching the project " + projectDir, e.getCause());
+        }
+        synchronized (ProjectWatcher.class) {
+            if (WATCHERS.get(key) != future) {
+                // closed while it was starting
+                watcher.stop();
+                throw new ConfigurationException("The watch of " + projectDir + " has been closed");
+            }
+        }
+        return watcher;
+    }
+
+    private static synchronized void remove(String key, FutureTask<ProjectWatcher> future) {
+        if (WATCHERS.get(key) == future) {
+            WATCHERS.remove(key);
+        }
+    }
+
+    /**
+     * Closes the started watchers. The ones that are starting are closed when their build finishes.
+     */
+    public static void closeAll() {
+        List<FutureTask<ProjectWatcher>> futures = null;
+        synchronized (ProjectWatcher.class) {
+            futures = new LinkedList<FutureTask<ProjectWatcher>>(WATCHERS.values());
+            WATCHERS.clear();
+        }
+        for (FutureTask<ProjectWatcher> future : futures) {
+            if (future.isDone()) {
+                try {
+                    future.get().stop();
+                } catch (Exception e) {
+                    // it failed to start: there is nothing to close
+                }
+            }
+        }
+    }
+
+    public ClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+    /**
+     * Sets the current class loader in the configuration, and the next ones after every refresh.
+     */
+    public void addConfiguration(Configuration configuration) {
+        if (!configurations.contains(configuration)) {
+            configurations.add(configuration);
+        }
+        configuration.getParameters().put("classLoader", classLoader);
+    }
+
+    private void start() throws ConfigurationException {
+        classLoader = build();
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            register(rootDir.toPath());
+        } catch (IOException e) {
+            throw new ConfigurationException("Error watching the project " + rootDir.getAbsolutePath(), e);
+        }
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "walkmod-gradle-watch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Compiles the project and returns a new class loader, or the current one if neither the compiled classes nor
+     * the classpath changed.
+     */
+    private ClassLoader build() throws ConfigurationException {
+        try {
+            provider.compile();
+        } catch (Exception e) {
+            throw new ConfigurationException("Error compiling the project", e.getCause());
+        }
+        CompileState state = provider.getCompileState();
+        String compiled = state.getFingerprint();
+        List<File> files = provider.getClassPathFiles();
+        List<Path> dirs = new LinkedList<Path>();
+        for (File dir : state.getBuildDirs()) {
+            dirs.add(dir.toPath());
+        }
+        buildDirs = dirs;
+        if (classLoader != null && compiled != null && compiled.equals(fingerprint) && files.equals(classPath)) {
+            return classLoader;
+        }
+        ClassLoader loader = provider.createClassLoader(files);
+        fingerprint = compiled;
+        classPath = files;
+        return loader;
+    }
+
+    private void register(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path current, BasicFileAttributes attrs) throws IOException {
+                if (!current.equals(rootDir.toPath()) && isIgnored(current)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                current.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Hidden files and the build directories of the projects do not change the class loader: the compiled classes
+     * are written by the refresh itself. The build directories are the ones reported by the models, or the build
+     * directories next to the build scripts until they are known.
+     */
+    private boolean isIgnored(Path path) {
+        String name = path.getFileName().toString();
+        if (name.startsWith(".")) {
+            return true;
+        }
+        List<Path> dirs = buildDirs;
+        if (!dirs.isEmpty()) {
+            return dirs.contains(path.toAbsolutePath());
+        }
+        File parent = path.toFile().getParentFile();
+        return "build".equals(name) && parent != null
+                && (new File(parent, "build.gradle").isFile() || new File(parent, "build.gradle.kts").isFile());
+    }
+
+    private void watch() {
+        while (!closed) {
+            try {
+                boolean changed = process(watchService.take());
+                WatchKey next = watchService.poll(delay, TimeUnit.MILLISECONDS);
+                while (next != null) {
+                    changed = process(next) || changed;
+                    next = watchService.poll(delay, TimeUnit.MILLISECONDS);
+                }
+                if (changed && !closed) {
+                    refresh();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+        }
+    }
+
+    private boolean process(WatchKey watchKey) {
+        boolean changed = false;
+        Path dir = (Path) watchKey.watchable();
+        for (WatchEvent<?> event : watchKey.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                changed = true;
+                continue;
+            }
+            Path child = dir.resolve((Path) event.context());
+            if (isIgnored(child)) {
+                continue;
+            }
+            changed = true;
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(child)) {
+                try {
+                    register(child);
+                } catch (IOException e) {
+                    System.err.println("Error watching " + child + ": " + e.getMessage());
+                }
+            }
+        }
+        watchKey.reset();
+        return changed;
+    }
+
+    /**
+     * Compiles the project again and replaces the class loader. The previous one stays usable while something
+     * references it, and the current one is kept if the build fails or nothing it loads has changed.
+     */
+    private synchronized void refresh() {
+        long start = provider.startMetrics();
+        ClassLoader loader = null;
+        try {
+            loader = build();
+        } catch (ConfigurationException e) {
+            System.err.println("Error refreshing the classpath of " + rootDir.getAbsolutePath() + ": "
+                    + e.getMessage());
+            return;
+        }
+        if (loader == classLoader) {
+            releaseCollected();
+            return;
+        }
+        retire(classLoader);
+        classLoader = loader;
+        for (Configuration configuration : configurations) {
+            configuration.getParameters().put("classLoader", loader);
+        }
+        releaseCollected();
+        try {
+            provider.publishMetrics(start, configurations);
+        } catch (ConfigurationException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Walkers can still use a replaced loader, so its files are only released once nothing references it.
+     */
+    private void retire(ClassLoader loader) {
+        if (loader instanceof IndexedClassLoader) {
+            retired.add(new RetiredLoader(loader, ((IndexedClassLoader) loader).getCloser(), collected));
+        }
+    }
+
+    private void releaseCollected() {
+        Reference<? extends ClassLoader> reference = collected.poll();
+        while (reference != null) {
+            RetiredLoader loader = (RetiredLoader) reference;
+            retired.remove(loader);
+            loader.release();
+            reference = collected.poll();
+        }
+    }
+
+    /**
+     * Stops watching the project and closes its class loaders, including the replaced ones that are still
+     * referenced.
+     */
+    @Override
+    public void close() {
+        synchronized (ProjectWatcher.class) {
+            FutureTask<ProjectWatcher> future = WATCHERS.get(key);
+            if (future != null && future.isDone()) {
+                try {
+                    if (future.get() == this) {
+                        WATCHERS.remove(key);
+                    }
+                } catch (Exception e) {
+                    WATCHERS.remove(key);
+                }
+            }
+        }
+        stop();
+    }
+
+    private void stop() {
+        closed = true;
+        try {
+            if (watchService != null) {
+                watchService.close();
+            }
+        } catch (IOException e) {
+            // the watch thread stops anyway
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            for (RetiredLoader loader : retired) {
+                loader.release();
+            }
+            retired.clear();
+            if (classLoader instanceof IndexedClassLoader) {
+                try {
+                    ((IndexedClassLoader) classLoader).close();
+                } catch (IOException e) {
+                    System.err.println("Error closing the class loader: " + e.getMessage());
+                }
+            }
+            session.close();
+        }
+    }
+
+    /**
+     * Weak reference to a replaced loader, with what has to be released once it is garbage collected.
+     */
+    private static class RetiredLoader extends WeakReference<ClassLoader> {
+
+        private final Closeable closer;
+
+        public RetiredLoader(ClassLoader loader, Closeable closer, ReferenceQueue<ClassLoader> queue) {
+            super(loader, queue);
+            this.closer = closer;
+        }
+
+        public void release() {
+            try {
+                closer.close();
+            } catch (IOException e) {
+                System.err.println("Error closing the class loader: " + e.getMessage());
+            }
+        }
+    }
+}
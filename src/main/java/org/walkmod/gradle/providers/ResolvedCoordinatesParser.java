@@ -0,0 +1,56 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.providers;
+
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Extracts the dependencies resolved by the walkmod init script from the output of the build while Gradle writes
+ * it.
+ */
+public class ResolvedCoordinatesParser extends LineParser {
+
+    private static final String CONFIGURATION_PREFIX = "walkmod:configuration=";
+
+    private static final String DEPENDENCY_PREFIX = "walkmod:dependency=";
+
+    private boolean resolved = false;
+
+    private final Set<String> coordinates = new LinkedHashSet<String>();
+
+    @Override
+    protected void parseLine(String current) {
+        String line = current.trim();
+        if (line.startsWith(CONFIGURATION_PREFIX)) {
+            resolved = true;
+        } else if (line.startsWith(DEPENDENCY_PREFIX)) {
+            coordinates.add(line.substring(DEPENDENCY_PREFIX.length()));
+        }
+    }
+
+    /**
+     * Returns the coordinates found so far, or null if no configuration was resolved.
+     */
+    public List<String> getCoordinates() {
+        if (!resolved) {
+            return null;
+        }
+        return new LinkedList<String>(coordinates);
+    }
+}
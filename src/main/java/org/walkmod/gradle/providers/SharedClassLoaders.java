@@ -0,0 +1,157 @@
+/*
+ Copyright (C) 2015 Raquel Pau and Albert Coroleu.
+
+Walkmod is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Walkmod is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.gradle.providers;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Class loaders of the jars of the classpath, shared by the modules of a build, so that every third-party class is
+ * only defined once per process. A module whose jars are the same files as the ones of a loader reuses it. Otherwise,
+ * a new loader is created for its jars, as a child of the largest loader whose jars are all part of them, so it only
+ * loads the jars that the other one lacks. Each loader counts its references, including the ones of its children,
+ * and is closed when the last one is released.
+ */
+public class SharedClassLoaders {
+
+    private static final Map<String, Shared> LOADERS = new HashMap<String, Shared>();
+
+    private static final Map<ClassLoader, Shared> ACQUIRED = new HashMap<ClassLoader, Shared>();
+
+    /**
+     * Returns the loader of the given jars, creating it if no module uses them yet. The jars are identified by their
+     * path, size and modification time, so a jar that changes gets a new loader.
+     */
+    public static IndexedClassLoader acquire(List<File> jars, File indexDir) throws IOException {
+        List<String> ids = new ArrayList<String>(jars.size());
+        Fingerprint fingerprint = new Fingerprint();
+        for (File jar : jars) {
+            File file = jar.getAbsoluteFile();
+            String id = file.getPath() + "|" + file.length() + "|" + file.lastModified();
+            ids.add(id);
+            fingerprint.add(id);
+        }
+        String key = fingerprint.getValue();
+        synchronized (SharedClassLoaders.class) {
+            Shared shared = LOADERS.get(key);
+            if (shared == null) {
+                Set<String> idSet = new HashSet<String>(ids);
+                Shared layer = findLayer(idSet);
+                ClassLoader parent = ClassLoader.getSystemClassLoader();
+                List<File> own = jars;
+                if (layer != null) {
+                    parent = layer.loader;
+                    own = new ArrayList<File>();
+                    for (int i = 0; i < jars.size(); i++) {
+                        if (!layer.ids.contains(ids.get(i))) {
+                            own.add(jars.get(i));
+                        }
+                    }
+                }
+                shared = new Shared(key, idSet, new IndexedClassLoader(own, parent, indexDir), layer);
+                if (layer != null) {
+                    layer.references++;
+                }
+                LOADERS.put(key, shared);
+                ACQUIRED.put(shared.loader, shared);
+            }
+            shared.references++;
+            return shared.loader;
+        }
+    }
+
+    /**
+     * Returns the loader with the most jars that are all part of the given ones.
+     */
+    private static Shared findLayer(Set<String> ids) {
+        Shared result = null;
+        for (Shared shared : LOADERS.values()) {
+            if ((result == null || shared.ids.size() > result.ids.size()) && ids.containsAll(shared.ids)) {
+                result = shared;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Releases a loader returned by {@link #acquire(List, File)}, closing it if no module uses it anymore, and then
+     * the loader it was built on if it is not used either.
+     */
+    public static void release(ClassLoader loader) throws IOException {
+        List<IndexedClassLoader> unused = new LinkedList<IndexedClassLoader>();
+        synchronized (SharedClassLoaders.class) {
+            Shared shared = ACQUIRED.get(loader);
+            while (shared != null && --shared.references == 0) {
+                LOADERS.remove(shared.key);
+                ACQUIRED.remove(shared.loader);
+                unused.add(shared.loader);
+                shared = shared.layer;
+            }
+        }
+        IOException error = null;
+        for (IndexedClassLoader closed : unused) {
+            try {
+                closed.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    public static synchronized int getReferences(ClassLoader loader) {
+        Shared shared = ACQUIRED.get(loader);
+        if (shared == null) {
+            return 0;
+        }
+        return shared.references;
+    }
+
+    public static synchronized int size() {
+        return LOADERS.size();
+    }
+
+    private static class Shared {
+
+        private final String key;
+
+        private final Set<String> ids;
+
+        private final IndexedClassLoader loader;
+
+        private final Shared layer;
+
+        private int references = 0;
+
+        public Shared(String key, Set<String> ids, IndexedClassLoader loader, Shared layer) {
+            this.key = key;
+            this.ids = ids;
+            this.loader = loader;
+            this.layer = layer;
+        }
+    }
+}
@@ -1,7 +1,15 @@
 package org.walkmod.gradle.initializers;
 
 import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
 
+import org.gradle.tooling.ProjectConnection;
+import org.gradle.tooling.model.gradle.GradleBuild;
 import org.junit.Assert;
 import org.junit.Test;
 import org.walkmod.conf.entities.Configuration;
@@ -47,4 +55,55 @@ public class GradleInitializerTest {
 		child2.delete();
 
 	}
+
+	@Test
+	public void testTheConnectionIsClosedAfterFetchingTheBuild() throws Exception {
+		final List<String> calls = new LinkedList<String>();
+		final GradleBuild build = (GradleBuild) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { GradleBuild.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						return null;
+					}
+				});
+		GradleInitializer initializer = new GradleInitializer() {
+			@Override
+			ProjectConnection connect(File projectDir) {
+				return connection(calls, build);
+			}
+		};
+		Assert.assertSame(build, initializer.getBuild(new File("src/test/resources/multiple")));
+		Assert.assertEquals(Arrays.asList("getModel", "close"), calls);
+	}
+
+	@Test
+	public void testTheConnectionIsClosedWhenTheBuildFails() throws Exception {
+		final List<String> calls = new LinkedList<String>();
+		GradleInitializer initializer = new GradleInitializer() {
+			@Override
+			ProjectConnection connect(File projectDir) {
+				return connection(calls, null);
+			}
+		};
+		try {
+			initializer.getBuild(new File("src/test/resources/multiple"));
+			Assert.fail("the build should fail");
+		} catch (IllegalStateException e) {
+			Assert.assertEquals(Arrays.asList("getModel", "close"), calls);
+		}
+	}
+
+	private static ProjectConnection connection(final List<String> calls, final GradleBuild build) {
+		return (ProjectConnection) Proxy.newProxyInstance(GradleInitializerTest.class.getClassLoader(),
+				new Class<?>[] { ProjectConnection.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						calls.add(method.getName());
+						if ("getModel".equals(method.getName()) && build == null) {
+							throw new IllegalStateException("broken build");
+						}
+						return "getModel".equals(method.getName()) ? build : null;
+					}
+				});
+	}
 }
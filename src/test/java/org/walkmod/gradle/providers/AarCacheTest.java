@@ -0,0 +1,63 @@
+package org.walkmod.gradle.providers;
+
+import java.io.File;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AarCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testAarsAreExtractedOncePerContent() throws Exception {
+        AarCache cache = new AarCache(folder.newFolder("cache"));
+        File aar = new File(folder.getRoot(), "a/lib.aar");
+        GradleUtilsTest.writeAAR(aar, "v1");
+        File copy = new File(folder.getRoot(), "b/lib.aar");
+        FileUtils.copyFile(aar, copy);
+
+        File dir = cache.extract(aar);
+        Assert.assertEquals("v1", FileUtils.readFileToString(new File(dir, "classes.jar")));
+        Assert.assertTrue(new File(dir, "libs/dep.jar").exists());
+        Assert.assertFalse(new File(dir, "AndroidManifest.xml").exists());
+        Assert.assertEquals(dir, cache.extract(copy));
+
+        GradleUtilsTest.writeAAR(copy, "version-2");
+        File other = cache.extract(copy);
+        Assert.assertFalse(dir.equals(other));
+        Assert.assertEquals("version-2", FileUtils.readFileToString(new File(other, "classes.jar")));
+    }
+
+    @Test
+    public void testConcurrentExtractions() throws Exception {
+        final AarCache cache = new AarCache(folder.newFolder("cache"));
+        final File aar = new File(folder.getRoot(), "lib.aar");
+        GradleUtilsTest.writeAAR(aar, "concurrent");
+
+        List<Callable<File>> tasks = new LinkedList<Callable<File>>();
+        for (int i = 0; i < 16; i++) {
+            tasks.add(new Callable<File>() {
+                @Override
+                public File call() throws Exception {
+                    return cache.extract(aar);
+                }
+            });
+        }
+        List<File> dirs = ParallelTasks.invokeAll(tasks, 8);
+        for (File dir : dirs) {
+            Assert.assertEquals(dirs.get(0), dir);
+        }
+        File[] files = cache.getCacheDir().listFiles();
+        for (File file : files) {
+            Assert.assertFalse(file.getName().contains(".tmp-"));
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.walkmod.gradle.providers;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AndroidSdkTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPlatforms() throws Exception {
+        File home = folder.newFolder("sdk");
+        new File(home, "platforms/android-21").mkdirs();
+        new File(home, "platforms/android-23").mkdirs();
+        new File(home, "platforms/android-N").mkdirs();
+
+        AndroidSdk sdk = new AndroidSdk(home);
+        Assert.assertEquals(new File(home, "platforms/android-21/android.jar"), sdk.getAndroidJar(19));
+        Assert.assertEquals(new File(home, "platforms/android-23/android.jar"), sdk.getAndroidJar(22));
+        Assert.assertNull(sdk.getAndroidJar(24));
+    }
+
+    @Test
+    public void testExtrasArtifacts() throws Exception {
+        File home = folder.newFolder("sdk");
+        File aar = new File(home,
+                "extras/android/m2repository/com/android/support/appcompat-v7/23.1.1/appcompat-v7-23.1.1.aar");
+        FileUtils.write(aar, "aar");
+        FileUtils.write(new File(aar.getParentFile(), "appcompat-v7-23.1.1.pom"), "pom");
+        File jar = new File(home,
+                "extras/google/m2repository/com/google/android/gms/play-services-base/8.3.0/play-services-base-8.3.0.jar");
+        FileUtils.write(jar, "jar");
+
+        AndroidSdk sdk = new AndroidSdk(home);
+        Assert.assertEquals(aar, sdk.findArtifact("com.android.support", "appcompat-v7", "23.1.1"));
+        Assert.assertEquals(jar, sdk.findArtifact("com.google.android.gms", "play-services-base", "8.3.0"));
+        Assert.assertNull(sdk.findArtifact("com.android.support", "appcompat-v7", "22.0.0"));
+
+        // installed while the process runs
+        File installed = new File(home,
+                "extras/android/m2repository/com/android/support/appcompat-v7/22.0.0/appcompat-v7-22.0.0.jar");
+        FileUtils.write(installed, "jar");
+        Assert.assertEquals(installed, sdk.findArtifact("com.android.support", "appcompat-v7", "22.0.0"));
+    }
+
+    @Test
+    public void testCompileSdkVersionIsRefreshed() throws Exception {
+        File project = folder.newFolder("project");
+        File buildFile = new File(project, "build.gradle");
+        FileUtils.write(buildFile, "android {\n    compileSdkVersion 23\n}\n");
+        Assert.assertEquals(Integer.valueOf(23), AndroidSdk.getCompileSdkVersion(project));
+
+        FileUtils.write(buildFile, "android {\n    compileSdkVersion 'android-21'\n    minSdkVersion 9\n}\n");
+        Assert.assertEquals(Integer.valueOf(21), AndroidSdk.getCompileSdkVersion(project));
+    }
+}
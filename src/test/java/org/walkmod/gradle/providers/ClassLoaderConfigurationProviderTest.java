@@ -16,16 +16,22 @@ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
 package org.walkmod.gradle.providers;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.List;
 
 import org.gradle.jarjar.org.apache.commons.io.FileUtils;
 import org.junit.Assert;
 import org.junit.Ignore;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.walkmod.conf.entities.impl.ConfigurationImpl;
 
 public class ClassLoaderConfigurationProviderTest {
 
+   @Rule
+   public TemporaryFolder folder = new TemporaryFolder();
+
    @Test
    public void testResolveShouldCompile() throws Exception {
       ClassLoaderConfigurationProvider prov = new ClassLoaderConfigurationProvider();
@@ -33,6 +39,23 @@ public class ClassLoaderConfigurationProviderTest {
       prov.compile();
    }
 
+   @Test
+   public void testMinimalCompile() throws Exception {
+      File buildDir = new File("src/test/resources/project-sample/build");
+      FileUtils.deleteDirectory(buildDir);
+      ClassLoaderConfigurationProvider prov = new ClassLoaderConfigurationProvider();
+      prov.setCacheDir(folder.newFolder("cache").getAbsolutePath());
+      prov.setWorkingDirectory("src/test/resources/project-sample");
+      prov.setMinimalCompile(true);
+      prov.setForceCompile(true);
+      prov.compile();
+      Assert.assertTrue(new File(buildDir, "classes/main/org/gradle/sample/Main.class").exists());
+      // the packaging tasks did not run
+      Assert.assertFalse(new File(buildDir, "libs/project-sample.jar").exists());
+      String[] libs = new File(buildDir, "libs").list();
+      Assert.assertTrue(libs == null || libs.length == 0);
+   }
+
    @Test
    public void testResolveShouldRetrieveGradleDependencies() throws Exception {
       ClassLoaderConfigurationProvider prov = new ClassLoaderConfigurationProvider();
@@ -56,6 +79,140 @@ public class ClassLoaderConfigurationProviderTest {
       cl.loadClass("org.gradle.sample.Main");
    }
 
+   @Test
+   public void testEveryLoadReportsItsOwnMetrics() throws Exception {
+      File project = folder.newFolder("project");
+      File classes = new File(project, "build/classes/main");
+      classes.mkdirs();
+      File snapshot = new File(project, "classpath.snapshot");
+      new ClassPathSnapshot(snapshot).write(project, Arrays.asList(classes));
+
+      ClassLoaderConfigurationProvider prov = new ClassLoaderConfigurationProvider();
+      prov.setCacheDir(folder.newFolder("cache").getAbsolutePath());
+      prov.setWorkingDirectory(project.getAbsolutePath());
+      prov.setSnapshot(snapshot.getAbsolutePath());
+      prov.setPoolClassLoaders(false);
+      ConfigurationImpl conf = new ConfigurationImpl();
+      prov.init(conf);
+      prov.load();
+      GradleMetrics first = prov.getMetrics();
+      prov.load();
+      Assert.assertNotSame(first, prov.getMetrics());
+      Assert.assertSame(prov.getMetrics(), conf.getParameters().get(GradleMetrics.PARAMETER));
+      Assert.assertEquals(1, prov.getMetrics().getCounter("classPathEntries"));
+   }
+
+   @Test
+   public void testIdenticalConfigurationsReuseTheClassLoader() throws Exception {
+      String cacheDir = folder.newFolder("cache").getAbsolutePath();
+      ClassLoaderConfigurationProvider prov = new ClassLoaderConfigurationProvider();
+      prov.setCacheDir(cacheDir);
+      prov.setWorkingDirectory("src/test/resources/project-sample");
+      prov.setPoolClassLoaders(true);
+      ConfigurationImpl conf = new ConfigurationImpl();
+      prov.init(conf);
+      prov.load();
+      ClassLoaderHandle handle = (ClassLoaderHandle) conf.getParameters().get(ClassLoaderHandle.PARAMETER);
+      Assert.assertSame(handle.getClassLoader(), conf.getParameters().get("classLoader"));
+
+      ClassLoaderConfigurationProvider next = new ClassLoaderConfigurationProvider();
+      next.setCacheDir(cacheDir);
+      next.setWorkingDirectory("src/test/resources/project-sample");
+      next.setPoolClassLoaders(true);
+      ConfigurationImpl nextConf = new ConfigurationImpl();
+      next.init(nextConf);
+      next.load();
+      ClassLoaderHandle nextHandle = (ClassLoaderHandle) nextConf.getParameters().get(ClassLoaderHandle.PARAMETER);
+      Assert.assertSame(handle.getClassLoader(), nextHandle.getClassLoader());
+      handle.close();
+      nextHandle.close();
+   }
+
+   @Test
+   public void testSharedSession() throws Exception {
+      GradleSession session = new GradleSession();
+      ClassLoaderConfigurationProvider prov = new ClassLoaderConfigurationProvider();
+      prov.setCacheDir(folder.newFolder("cache").getAbsolutePath());
+      prov.setWorkingDirectory("src/test/resources/project-sample");
+      prov.setClassPathCache(false);
+      prov.setSession(session);
+      try {
+         prov.compile();
+         List<File> classPath = prov.getClassPathFiles();
+         Assert.assertTrue(classPath.size() > 0);
+         Assert.assertSame(session, prov.getSession());
+         Assert.assertEquals(1, session.getOpenedConnections());
+      } finally {
+         session.close();
+      }
+   }
+
+   @Test
+   public void testBuildActionResolvesTheSameClassPath() throws Exception {
+      ClassLoaderConfigurationProvider prov = new ClassLoaderConfigurationProvider();
+      prov.setCacheDir(folder.newFolder("cache").getAbsolutePath());
+      prov.setWorkingDirectory("src/test/resources/project-sample");
+      prov.setClassPathCache(false);
+      prov.compile();
+      List<File> classPath = prov.getClassPathFiles();
+
+      prov.setBuildAction(false);
+      Assert.assertEquals(classPath, prov.getClassPathFiles());
+   }
+
+   @Test
+   public void testWatchModeReusesTheClassLoader() throws Exception {
+      try {
+         String cacheDir = folder.newFolder("cache").getAbsolutePath();
+         ClassLoaderConfigurationProvider prov = new ClassLoaderConfigurationProvider();
+         prov.setCacheDir(cacheDir);
+         prov.setWorkingDirectory("src/test/resources/project-sample");
+         prov.setWatch(true);
+         ConfigurationImpl conf = new ConfigurationImpl();
+         prov.init(conf);
+         prov.load();
+         ClassLoader cl = (ClassLoader) conf.getParameters().get("classLoader");
+         cl.loadClass("org.gradle.sample.Main");
+
+         ClassLoaderConfigurationProvider next = new ClassLoaderConfigurationProvider();
+         next.setCacheDir(cacheDir);
+         next.setWorkingDirectory("src/test/resources/project-sample");
+         next.setWatch(true);
+         ConfigurationImpl nextConf = new ConfigurationImpl();
+         next.init(nextConf);
+         next.load();
+         Assert.assertSame(cl, nextConf.getParameters().get("classLoader"));
+      } finally {
+         ProjectWatcher.closeAll();
+      }
+   }
+
+   @Test
+   public void testWatchModeKeepsTheSettingsOfEachProvider() throws Exception {
+      try {
+         String cacheDir = folder.newFolder("cache").getAbsolutePath();
+         ClassLoaderConfigurationProvider prov = new ClassLoaderConfigurationProvider();
+         prov.setCacheDir(cacheDir);
+         prov.setWorkingDirectory("src/test/resources/project-sample");
+         prov.setWatch(true);
+         ConfigurationImpl conf = new ConfigurationImpl();
+         prov.init(conf);
+         prov.load();
+
+         ClassLoaderConfigurationProvider next = new ClassLoaderConfigurationProvider();
+         next.setCacheDir(cacheDir);
+         next.setWorkingDirectory("src/test/resources/project-sample");
+         next.setWatch(true);
+         next.setJarIndex(false);
+         ConfigurationImpl nextConf = new ConfigurationImpl();
+         next.init(nextConf);
+         next.load();
+         Assert.assertNotSame(conf.getParameters().get("classLoader"), nextConf.getParameters().get("classLoader"));
+      } finally {
+         ProjectWatcher.closeAll();
+      }
+   }
+
    @Ignore
    public void testAndroid() throws Exception {
 
@@ -0,0 +1,105 @@
+package org.walkmod.gradle.providers;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.walkmod.conf.ConfigurationException;
+
+public class ClassLoaderPoolTest {
+
+    private Callable<ClassLoader> newLoader() throws Exception {
+        final File jar = TestClassPath.getLocation(Assert.class);
+        return new Callable<ClassLoader>() {
+            @Override
+            public ClassLoader call() throws Exception {
+                return new IndexedClassLoader(Arrays.asList(jar));
+            }
+        };
+    }
+
+    @Test
+    public void testSameKeysReuseTheLoader() throws Exception {
+        ClassLoaderPool pool = new ClassLoaderPool(2, Long.MAX_VALUE);
+        ClassLoaderHandle first = pool.acquire("a", newLoader());
+        ClassLoaderHandle second = pool.acquire("a", newLoader());
+        Assert.assertSame(first.getClassLoader(), second.getClassLoader());
+        ClassLoaderHandle other = pool.acquire("b", newLoader());
+        Assert.assertNotSame(first.getClassLoader(), other.getClassLoader());
+
+        first.close();
+        first.close();
+        second.close();
+        other.close();
+        Assert.assertEquals(2, pool.size());
+        pool.clear();
+        Assert.assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void testIdleLoadersAreEvictedAboveTheCount() throws Exception {
+        ClassLoaderPool pool = new ClassLoaderPool(1, Long.MAX_VALUE);
+        ClassLoaderHandle first = pool.acquire("a", newLoader());
+        ClassLoaderHandle second = pool.acquire("b", newLoader());
+        // both loaders are in use
+        Assert.assertEquals(2, pool.size());
+
+        first.close();
+        Assert.assertFalse(pool.contains("a"));
+        Assert.assertTrue(pool.contains("b"));
+
+        second.close();
+        Assert.assertTrue(pool.contains("b"));
+        ClassLoaderHandle third = pool.acquire("c", newLoader());
+        Assert.assertFalse(pool.contains("b"));
+        third.close();
+    }
+
+    @Test
+    public void testIdleLoadersAreEvictedAboveTheMemory() throws Exception {
+        ClassLoaderPool pool = new ClassLoaderPool(10, 1);
+        ClassLoaderHandle handle = pool.acquire("a", newLoader());
+        handle.getClassLoader().loadClass("org.junit.Assert");
+        Assert.assertTrue(pool.contains("a"));
+        handle.close();
+        Assert.assertFalse(pool.contains("a"));
+    }
+
+    @Test
+    public void testCollectedHandlesReleaseTheirLoader() throws Exception {
+        ClassLoaderPool pool = new ClassLoaderPool(2, Long.MAX_VALUE);
+        ClassLoaderHandle handle = pool.acquire("a", newLoader());
+        pool.clear();
+        // the handle is not closed, so the loader is only idle once it is collected
+        Assert.assertEquals(1, pool.size());
+        // what the garbage collector does once the handle is no longer referenced
+        handle.reference.enqueue();
+        pool.clear();
+        Assert.assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void testPoolsOfTheSameBoundsAreShared() throws Exception {
+        Assert.assertSame(ClassLoaderPool.get(3, 1024), ClassLoaderPool.get(3, 1024));
+        Assert.assertNotSame(ClassLoaderPool.get(3, 1024), ClassLoaderPool.get(4, 1024));
+    }
+
+    @Test
+    public void testFailedLoadersAreNotPooled() throws Exception {
+        ClassLoaderPool pool = new ClassLoaderPool(2, Long.MAX_VALUE);
+        try {
+            pool.acquire("a", new Callable<ClassLoader>() {
+                @Override
+                public ClassLoader call() throws Exception {
+                    throw new ConfigurationException("broken classpath");
+                }
+            });
+            Assert.fail("The error of the factory should be thrown");
+        } catch (ConfigurationException e) {
+            Assert.assertEquals("broken classpath", e.getMessage());
+        }
+        Assert.assertFalse(pool.contains("a"));
+    }
+}
@@ -0,0 +1,80 @@
+package org.walkmod.gradle.providers;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ClassPathCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testStoredClassPathIsReused() throws Exception {
+        File project = folder.newFolder("project");
+        FileUtils.write(new File(project, "build.gradle"), "apply plugin: 'java'");
+        File jar = folder.newFile("lib.jar");
+
+        ClassPathCache cache = new ClassPathCache(new File(folder.getRoot(), "cache/project.classpath"));
+        cache.store("key", Arrays.asList(project), Arrays.asList(jar));
+
+        List<File> cached = cache.load("key");
+        Assert.assertNotNull(cached);
+        Assert.assertEquals(1, cached.size());
+        Assert.assertEquals(jar.getAbsolutePath(), cached.get(0).getAbsolutePath());
+    }
+
+    @Test
+    public void testChangesInvalidateTheClassPath() throws Exception {
+        File project = folder.newFolder("project");
+        File buildFile = new File(project, "build.gradle");
+        FileUtils.write(buildFile, "apply plugin: 'java'");
+        File jar = folder.newFile("lib.jar");
+
+        ClassPathCache cache = new ClassPathCache(new File(folder.getRoot(), "cache/project.classpath"));
+        cache.store("key", Arrays.asList(project), Arrays.asList(jar));
+
+        Assert.assertNull(cache.load("other-key"));
+
+        FileUtils.write(new File(project, "settings.gradle"), "include 'krill'");
+        Assert.assertNull(cache.load("key"));
+
+        cache.store("key", Arrays.asList(project), Arrays.asList(jar));
+        jar.delete();
+        Assert.assertNull(cache.load("key"));
+
+        cache.invalidate();
+        Assert.assertFalse(cache.getCacheFile().exists());
+    }
+
+    @Test
+    public void testCatalogsAndBuildLogicInvalidateTheClassPath() throws Exception {
+        File project = folder.newFolder("project");
+        FileUtils.write(new File(project, "settings.gradle"), "include 'app'");
+        File app = new File(project, "app");
+        FileUtils.write(new File(app, "build.gradle"), "apply plugin: 'java'");
+        File catalog = new File(project, "gradle/libs.versions.toml");
+        FileUtils.write(catalog, "[versions]\nguava = \"18.0\"\n");
+        File jar = folder.newFile("lib.jar");
+
+        ClassPathCache cache = new ClassPathCache(new File(folder.getRoot(), "cache/project.classpath"));
+        cache.store("key", Arrays.asList(app), Arrays.asList(jar));
+        Assert.assertEquals(1, cache.getCacheFile().getParentFile().list().length);
+        Assert.assertNotNull(cache.load("key"));
+
+        FileUtils.write(catalog, "[versions]\nguava = \"19.0.1\"\n");
+        Assert.assertNull(cache.load("key"));
+
+        cache.store("key", Arrays.asList(app), Arrays.asList(jar));
+        FileUtils.write(new File(project, "buildSrc/build/classes/Plugin.class"), "class");
+        Assert.assertNotNull(cache.load("key"));
+        FileUtils.write(new File(project, "buildSrc/src/main/groovy/Deps.groovy"), "class Deps {}");
+        Assert.assertNull(cache.load("key"));
+    }
+}
@@ -0,0 +1,62 @@
+package org.walkmod.gradle.providers;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.walkmod.conf.ConfigurationException;
+
+public class ClassPathSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testProjectEntriesAreRelative() throws Exception {
+        File project = folder.newFolder("project");
+        File classes = new File(project, "build/classes/main");
+        classes.mkdirs();
+        File jar = folder.newFile("javalang-4.8.8.jar");
+        File snapshotFile = new File(folder.getRoot(), "snapshot/classpath");
+
+        ClassPathSnapshot snapshot = new ClassPathSnapshot(snapshotFile);
+        snapshot.write(project, Arrays.asList(classes, jar));
+        Assert.assertTrue(FileUtils.readFileToString(snapshotFile, "UTF-8").contains("project=build/classes/main"));
+
+        File moved = new File(folder.getRoot(), "moved");
+        Assert.assertTrue(project.renameTo(moved));
+        List<File> entries = snapshot.read(moved);
+        Assert.assertEquals(Arrays.asList(new File(moved, "build/classes/main"), jar.getCanonicalFile()), entries);
+    }
+
+    @Test
+    public void testMissingEntriesAreReported() throws Exception {
+        File project = folder.newFolder("project");
+        File jar = folder.newFile("javalang-4.8.8.jar");
+        File snapshotFile = new File(folder.getRoot(), "snapshot/classpath");
+        ClassPathSnapshot snapshot = new ClassPathSnapshot(snapshotFile);
+        snapshot.write(project, Arrays.asList(new File(project, "build/classes/main"), jar));
+        new File(project, "build/classes/main").mkdirs();
+        jar.delete();
+        try {
+            snapshot.read(project);
+            Assert.fail("The missing jar should be reported");
+        } catch (ConfigurationException e) {
+            Assert.assertTrue(e.getMessage().contains("javalang-4.8.8.jar"));
+            Assert.assertFalse(e.getMessage().contains("main"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testOtherFilesAreRejected() throws Exception {
+        File file = folder.newFile("classpath");
+        FileUtils.write(file, "entry=/tmp/foo.jar");
+        new ClassPathSnapshot(file).read(folder.getRoot());
+    }
+}
@@ -0,0 +1,91 @@
+package org.walkmod.gradle.providers;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompileStateTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testUnchangedProjectsAreUpToDate() throws Exception {
+        File project = folder.newFolder("project");
+        FileUtils.write(new File(project, "build.gradle"), "apply plugin: 'java'");
+        File source = new File(project, "src/main/java/Foo.java");
+        FileUtils.write(source, "public class Foo {}");
+        File classes = new File(project, "build/classes/main/Foo.class");
+        FileUtils.write(classes, "0xCAFEBABE");
+        FileUtils.write(new File(project, "build/tmp/compileJava/log.txt"), "ignored");
+
+        CompileState state = new CompileState(new File(folder.getRoot(), "cache/project.compile"));
+        Assert.assertFalse(state.isUpToDate("assemble", project));
+
+        state.update("assemble", project);
+        Assert.assertTrue(state.isUpToDate("assemble", project));
+        Assert.assertFalse(state.isUpToDate("assembleRelease", project));
+
+        FileUtils.write(new File(project, "build/tmp/compileJava/log.txt"), "still ignored");
+        Assert.assertTrue(state.isUpToDate("assemble", project));
+        FileUtils.write(new File(project, "docs/index.html"), "not a source set");
+        Assert.assertTrue(state.isUpToDate("assemble", project));
+
+        FileUtils.write(source, "public class Foo { int bar; }");
+        Assert.assertFalse(state.isUpToDate("assemble", project));
+
+        state.update("assemble", project);
+        classes.delete();
+        Assert.assertFalse(state.isUpToDate("assemble", project));
+    }
+
+    @Test
+    public void testModulesAreCheckedFromTheRootProject() throws Exception {
+        File root = folder.newFolder("multiple");
+        FileUtils.write(new File(root, "settings.gradle"), "include 'krill', 'bluewhale'");
+        File krill = new File(root, "krill");
+        FileUtils.write(new File(krill, "build.gradle"), "apply plugin: 'java'");
+        File bluewhale = new File(root, "bluewhale");
+        FileUtils.write(new File(bluewhale, "build.gradle"), "apply plugin: 'java'");
+
+        Assert.assertEquals(root.getAbsolutePath(), CompileState.getRootDir(krill).getAbsolutePath());
+
+        CompileState state = new CompileState(new File(folder.getRoot(), "cache/krill.compile"));
+        state.update("assemble", krill);
+        FileUtils.write(new File(bluewhale, "src/main/java/Whale.java"), "public class Whale {}");
+        Assert.assertFalse(state.isUpToDate("assemble", krill));
+    }
+
+    @Test
+    public void testBuildDirectoriesOfTheModelsAreChecked() throws Exception {
+        File project = folder.newFolder("custom");
+        FileUtils.write(new File(project, "build.gradle"), "buildDir = 'out'");
+        File classes = new File(project, "out/classes/main/Foo.class");
+        FileUtils.write(classes, "0xCAFEBABE");
+        File kotlin = new File(project, "out/kotlin-classes/main/Bar.class");
+        FileUtils.write(kotlin, "0xCAFEBABE");
+
+        CompileState state = new CompileState(new File(folder.getRoot(), "cache/custom.compile"));
+        state.addOutput("kotlin-classes");
+        state.setBuildDirs(Arrays.asList(new File(project, "out")));
+        state.update("assemble", project);
+        Assert.assertTrue(state.isUpToDate("assemble", project));
+        Assert.assertEquals(Arrays.asList(new File(project, "out").getAbsoluteFile()), state.getBuildDirs());
+
+        kotlin.delete();
+        Assert.assertFalse(state.isUpToDate("assemble", project));
+
+        state.update("assemble", project);
+        FileUtils.deleteDirectory(new File(project, "out"));
+        Assert.assertFalse(state.isUpToDate("assemble", project));
+
+        state.update("assemble", project);
+        state.setBuildDirs(Arrays.asList(new File(project, "build")));
+        Assert.assertFalse(state.isUpToDate("assemble", project));
+    }
+}
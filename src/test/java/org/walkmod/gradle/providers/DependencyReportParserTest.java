@@ -0,0 +1,62 @@
+package org.walkmod.gradle.providers;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DependencyReportParserTest {
+
+    private static final String REPORT = "apk - Classpath packaged with the compiled main classes.\n"
+            + "\\--- com.google.code.gson:gson:2.4\n\n"
+            + "compile - Classpath for compiling the main sources.\n"
+            + "+--- com.android.support:appcompat-v7:23.1.1\n"
+            + "|    \\--- com.android.support:support-v4:23.+ -> 23.1.1\n"
+            + "\\--- com.android.support:support-v4:23.1.1 (*)\n\n"
+            + "debugApk - Classpath packaged with the compiled debug classes.\n"
+            + "\\--- com.squareup.leakcanary:leakcanary-android:1.3.1\n\n"
+            + "debugCompile - Classpath for compiling the debug sources.\n"
+            + "No dependencies\n\n"
+            + "provided - Classpath for only compiling the main sources.\n"
+            + "\\--- com.google.android.wearable:wearable:1.0.0\n\n"
+            + "releaseApk - Classpath packaged with the compiled release classes.\n"
+            + "\\--- com.google.code.gson:gson:2.4";
+
+    @Test
+    public void testCompileAndProvidedDependencies() throws Exception {
+        DependencyReportParser parser = new DependencyReportParser();
+        byte[] bytes = REPORT.getBytes("UTF-8");
+        // the output arrives in chunks that split the lines
+        for (int i = 0; i < bytes.length; i += 7) {
+            parser.write(bytes, i, Math.min(7, bytes.length - i));
+        }
+        parser.close();
+        Assert.assertEquals(Arrays.asList("com.android.support:appcompat-v7:23.1.1",
+                "com.android.support:support-v4:23.1.1", "com.google.android.wearable:wearable:1.0.0"),
+                parser.getCoordinates());
+    }
+
+    @Test
+    public void testEmptyConfigurations() throws Exception {
+        DependencyReportParser parser = new DependencyReportParser();
+        byte[] bytes = ("compile - Classpath for compiling the main sources.\nNo dependencies\n"
+                + "+--- com.android.support:appcompat-v7:23.1.1\n").getBytes("UTF-8");
+        parser.write(bytes, 0, bytes.length);
+        parser.close();
+        Assert.assertTrue(parser.getCoordinates().isEmpty());
+    }
+
+    @Test
+    public void testUtf8AndDuplicatesAreKept() throws Exception {
+        DependencyReportParser parser = new DependencyReportParser();
+        byte[] bytes = ("compile - Classpath for compiling the main sources.\n"
+                + "+--- org.caf\u00e9:caf\u00e9:1.0\n" + "\\--- org.caf\u00e9:caf\u00e9:1.0\n").getBytes("UTF-8");
+        // splits the multi-byte characters too
+        for (int i = 0; i < bytes.length; i += 3) {
+            parser.write(bytes, i, Math.min(3, bytes.length - i));
+        }
+        parser.close();
+        Assert.assertEquals(Arrays.asList("org.caf\u00e9:caf\u00e9:1.0", "org.caf\u00e9:caf\u00e9:1.0"),
+                parser.getCoordinates());
+    }
+}
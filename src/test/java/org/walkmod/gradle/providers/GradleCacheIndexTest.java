@@ -0,0 +1,52 @@
+package org.walkmod.gradle.providers;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GradleCacheIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testArtifactsAreIndexed() throws Exception {
+        File repo = folder.newFolder("files-2.1");
+        File jar = new File(repo, "junit/junit/4.12/2973d150c0dc1fefe998f834810d68f278ea58ec/junit-4.12.jar");
+        FileUtils.write(jar, "jar");
+        File pom = new File(repo, "junit/junit/4.11/4e031bb61df09069aeb2bffb4019e7a5034a4ee0/junit-4.11.pom");
+        FileUtils.write(pom, "pom");
+
+        GradleCacheIndex index = new GradleCacheIndex(repo, null);
+        Assert.assertEquals(jar, index.find("junit", "junit", "4.12").getFile());
+        Assert.assertNull(index.find("junit", "junit", "4.11").getFile());
+        Assert.assertNull(index.find("junit", "junit", "4.10"));
+    }
+
+    @Test
+    public void testPersistedIndexesAreRefreshed() throws Exception {
+        File repo = folder.newFolder("files-2.1");
+        File version = new File(repo, "com.android.support/appcompat-v7/23.1.1");
+        File aar = new File(version, "1a2b/appcompat-v7-23.1.1.aar");
+        FileUtils.write(aar, "aar");
+        File indexFile = new File(folder.getRoot(), "cache/files-2.1.index");
+
+        GradleCacheIndex index = new GradleCacheIndex(repo, indexFile);
+        Assert.assertEquals(aar, index.find("com.android.support", "appcompat-v7", "23.1.1").getFile());
+        index.save();
+        Assert.assertTrue(indexFile.isFile());
+        // no temporary file is left behind
+        Assert.assertEquals(1, indexFile.getParentFile().list().length);
+
+        index = new GradleCacheIndex(repo, indexFile);
+        Assert.assertEquals(aar, index.find("com.android.support", "appcompat-v7", "23.1.1").getFile());
+
+        FileUtils.deleteDirectory(version);
+        index = new GradleCacheIndex(repo, indexFile);
+        Assert.assertNull(index.find("com.android.support", "appcompat-v7", "23.1.1"));
+    }
+}
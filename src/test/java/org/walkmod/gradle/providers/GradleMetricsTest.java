@@ -0,0 +1,48 @@
+package org.walkmod.gradle.providers;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GradleMetricsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPhasesAndCounters() throws Exception {
+        GradleMetrics metrics = new GradleMetrics();
+        long start = metrics.start();
+        Thread.sleep(5);
+        metrics.stop(GradleMetrics.COMPILE, start);
+        metrics.add("jars", 2);
+        metrics.add("jars", 3);
+
+        Assert.assertTrue(metrics.getTime(GradleMetrics.COMPILE) >= 5);
+        Assert.assertEquals(0L, metrics.getTime(GradleMetrics.MODELS));
+        Assert.assertEquals(5L, metrics.getCounter("jars"));
+        Assert.assertEquals(Long.valueOf(5L), metrics.getCounters().get("jars"));
+
+        File report = new File(folder.getRoot(), "metrics.json");
+        metrics.writeReport(report);
+        Assert.assertTrue(report.isFile());
+    }
+
+    @Test
+    public void testAarExtractionIsCounted() throws Exception {
+        File aar = new File(folder.getRoot(), "library.aar");
+        GradleUtilsTest.writeAAR(aar, "library");
+        GradleMetrics metrics = new GradleMetrics();
+        AarCache cache = new AarCache(folder.newFolder("aar"));
+        cache.setMetrics(metrics);
+
+        cache.extract(aar);
+        cache.extract(aar);
+        Assert.assertEquals(1L, metrics.getCounter("aarsExtracted"));
+        Assert.assertTrue(metrics.getCounter("extractedBytes") > 0);
+        Assert.assertEquals(1L, metrics.getCounter("aarCacheHits"));
+    }
+}
@@ -1,9 +1,40 @@
 package org.walkmod.gradle.providers;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class GradleUtilsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public static void writeAAR(File aar, String content) throws Exception {
+        aar.getParentFile().mkdirs();
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(aar));
+        try {
+            zos.putNextEntry(new ZipEntry("AndroidManifest.xml"));
+            zos.write("<manifest/>".getBytes("UTF-8"));
+            zos.putNextEntry(new ZipEntry("classes.jar"));
+            zos.write(content.getBytes("UTF-8"));
+            zos.putNextEntry(new ZipEntry("libs/"));
+            zos.putNextEntry(new ZipEntry("libs/dep.jar"));
+            zos.write(content.getBytes("UTF-8"));
+            zos.closeEntry();
+        } finally {
+            zos.close();
+        }
+    }
     
     @Test
     public void testSimpleVersionNumbers(){
@@ -47,4 +78,95 @@ public class GradleUtilsTest {
         Assert.assertNotNull(path);
     }
 
+    @Test
+    public void testResolvedCoordinates() {
+        GradleUtils utils = new GradleUtils();
+        String output = ":app:walkmodDependencies\n" + "walkmod:configuration=proReleaseCompileClasspath\n"
+                + "walkmod:dependency=com.android.support:appcompat-v7:23.1.1\n"
+                + "walkmod:dependency=com.android.support:support-v4:23.1.1\n"
+                + "walkmod:dependency=com.android.support:appcompat-v7:23.1.1\n" + "\n" + "BUILD SUCCESSFUL\n";
+
+        List<String> coordinates = utils.parseResolvedCoordinates(output);
+
+        Assert.assertEquals(2, coordinates.size());
+        Assert.assertEquals("com.android.support:appcompat-v7:23.1.1", coordinates.get(0));
+        Assert.assertEquals("com.android.support:support-v4:23.1.1", coordinates.get(1));
+    }
+
+    @Test
+    public void testResolvedCoordinatesAreDecodedAsUtf8() throws Exception {
+        ResolvedCoordinatesParser parser = new ResolvedCoordinatesParser();
+        byte[] bytes = ("walkmod:configuration=compileClasspath\r\n"
+                + "walkmod:dependency=org.caf\u00e9:caf\u00e9:1.0\r\n").getBytes("UTF-8");
+        // split in the middle of every character
+        for (byte b : bytes) {
+            parser.write(b);
+        }
+        parser.close();
+
+        Assert.assertEquals(Arrays.asList("org.caf\u00e9:caf\u00e9:1.0"), parser.getCoordinates());
+    }
+
+    @Test
+    public void testUnresolvedConfigurations() {
+        GradleUtils utils = new GradleUtils();
+        Assert.assertNull(utils.parseResolvedCoordinates(":walkmodDependencies\n\nBUILD SUCCESSFUL\n"));
+    }
+
+    @Test
+    public void testResolveArtifactsFromTheGradleCache() throws Exception {
+        File userHome = folder.newFolder("gradle");
+        File repo = new File(userHome, "caches/modules-2/files-2.1");
+        File jar = new File(repo, "org.walkmod/javalang/4.8.8/a1b2/javalang-4.8.8.jar");
+        jar.getParentFile().mkdirs();
+        jar.createNewFile();
+        File aar = new File(repo, "com.android.support/appcompat-v7/23.1.1/c3d4/appcompat-v7-23.1.1.aar");
+        writeAAR(aar, "appcompat");
+
+        GradleUtils utils = new GradleUtils();
+        File aarCache = folder.newFolder("aar");
+        utils.setAarCache(new AarCache(aarCache));
+        List<File> result = new LinkedList<File>(utils.resolveArtifacts(userHome.getAbsolutePath(), Arrays.asList(
+                "com.android.support:appcompat-v7:23.1.1", "org.walkmod:javalang:4.8.8", "org.walkmod:missing:1.0")));
+
+        Assert.assertEquals(3, result.size());
+        Assert.assertEquals("classes.jar", result.get(0).getName());
+        Assert.assertEquals(aarCache, result.get(0).getParentFile().getParentFile());
+        Assert.assertEquals("dep.jar", result.get(1).getName());
+        Assert.assertEquals(jar, result.get(2));
+        Assert.assertFalse(new File(aar.getParentFile(), "classes.jar").exists());
+    }
+
+    @Test
+    public void testParallelResolutionKeepsTheOrder() throws Exception {
+        File userHome = folder.newFolder("gradle");
+        File repo = new File(userHome, "caches/modules-2/files-2.1");
+        List<String> coordinates = new LinkedList<String>();
+        List<File> expected = new LinkedList<File>();
+        for (int i = 0; i < 20; i++) {
+            File jar = new File(repo, "org.walkmod/lib" + i + "/1.0/a1b2/lib" + i + "-1.0.jar");
+            jar.getParentFile().mkdirs();
+            jar.createNewFile();
+            coordinates.add("org.walkmod:lib" + i + ":1.0");
+            expected.add(jar);
+        }
+
+        GradleUtils utils = new GradleUtils();
+        utils.setThreads(4);
+        utils.setAarCache(new AarCache(folder.newFolder("aar")));
+        Assert.assertEquals(expected,
+                new LinkedList<File>(utils.resolveArtifacts(userHome.getAbsolutePath(), coordinates)));
+    }
+
+    @Test
+    public void testReportedCoordinates() {
+        String report = "compile - Classpath for compiling the main sources.\n"
+                + "+--- com.android.support:appcompat-v7:23.1.1\n"
+                + "|    \\--- com.android.support:support-v4:23.+ -> 23.1.1\n"
+                + "\\--- com.android.support:support-v4:23.1.1 (*)\n\n"
+                + "debugApk - Classpath packaged with the compiled debug classes.\n"
+                + "No dependencies\n";
+        Assert.assertEquals(Arrays.asList("com.android.support:appcompat-v7:23.1.1",
+                "com.android.support:support-v4:23.1.1"), new GradleUtils().parseReportedCoordinates(report));
+    }
 }
@@ -0,0 +1,186 @@
+package org.walkmod.gradle.providers;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IndexedClassLoaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testClassesAreLoadedFromTheIndexedEntries() throws Exception {
+        IndexedClassLoader loader = new IndexedClassLoader(Arrays.asList(TestClassPath.getLocation(Assert.class)));
+        try {
+            Class<?> type = loader.loadClass("org.junit.Assert");
+            Assert.assertSame(loader, type.getClassLoader());
+            Assert.assertSame(type, loader.loadClass("org.junit.Assert"));
+            Assert.assertNotNull(loader.getResource("org/junit/Assert.class"));
+            Assert.assertSame(String.class, loader.loadClass("java.lang.String"));
+        } finally {
+            loader.close();
+        }
+    }
+
+    @Test
+    public void testJarsAreReadThroughTheirIndexes() throws Exception {
+        File indexDir = folder.newFolder("jars");
+        IndexedClassLoader loader = new IndexedClassLoader(Arrays.asList(TestClassPath.getLocation(Assert.class)),
+                ClassLoader.getSystemClassLoader(), indexDir);
+        try {
+            Class<?> type = loader.loadClass("org.junit.Assert");
+            Assert.assertSame(loader, type.getClassLoader());
+            Assert.assertNotNull(type.getPackage());
+            Assert.assertNotNull(loader.getResource("org/junit/Assert.class"));
+            Assert.assertEquals(1, indexDir.list().length);
+        } finally {
+            loader.close();
+        }
+    }
+
+    @Test(expected = ClassNotFoundException.class)
+    public void testMissingClasses() throws Exception {
+        IndexedClassLoader loader = new IndexedClassLoader(Arrays.asList(TestClassPath.getLocation(Assert.class)));
+        try {
+            loader.loadClass("org.junit.DoesNotExist");
+        } finally {
+            loader.close();
+        }
+    }
+
+    @Test
+    public void testRepeatedMisses() throws Exception {
+        IndexedClassLoader loader = new IndexedClassLoader(Arrays.asList(TestClassPath.getLocation(Assert.class)));
+        try {
+            for (int i = 0; i < 3; i++) {
+                try {
+                    loader.loadClass("org.junit.DoesNotExist");
+                    Assert.fail("org.junit.DoesNotExist should not be found");
+                } catch (ClassNotFoundException e) {
+                    Assert.assertEquals("org.junit.DoesNotExist", e.getMessage());
+                }
+            }
+            Assert.assertNotNull(loader.loadClass("org.junit.Assert"));
+        } finally {
+            loader.close();
+        }
+    }
+
+    private List<String> getClassNames(File jar) throws Exception {
+        List<String> names = new ArrayList<String>();
+        JarFile jarFile = new JarFile(jar);
+        try {
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                if (name.endsWith(".class") && !name.endsWith("-info.class")) {
+                    names.add(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+                }
+            }
+        } finally {
+            jarFile.close();
+        }
+        return names;
+    }
+
+    @Test
+    public void testConcurrentLookups() throws Exception {
+        File jar = TestClassPath.getLocation(Assert.class);
+        final List<String> names = getClassNames(jar);
+        for (int i = 0; i < 20; i++) {
+            names.add("org.junit.DoesNotExist" + i);
+        }
+        int threads = 16;
+        final IndexedClassLoader loader = new IndexedClassLoader(Arrays.asList(jar), null,
+                folder.newFolder("jars"));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final CyclicBarrier barrier = new CyclicBarrier(threads);
+            List<Future<Map<String, Class<?>>>> results = new ArrayList<Future<Map<String, Class<?>>>>();
+            for (int i = 0; i < threads; i++) {
+                final long seed = i;
+                results.add(executor.submit(new Callable<Map<String, Class<?>>>() {
+                    @Override
+                    public Map<String, Class<?>> call() throws Exception {
+                        List<String> order = new ArrayList<String>(names);
+                        Collections.shuffle(order, new Random(seed));
+                        Map<String, Class<?>> loaded = new HashMap<String, Class<?>>();
+                        barrier.await();
+                        for (String name : order) {
+                            try {
+                                loaded.put(name, loader.loadClass(name));
+                            } catch (ClassNotFoundException e) {
+                                loaded.put(name, null);
+                            } catch (LinkageError e) {
+                                loaded.put(name, null);
+                            }
+                        }
+                        return loaded;
+                    }
+                }));
+            }
+            Map<String, Class<?>> expected = null;
+            for (Future<Map<String, Class<?>>> result : results) {
+                Map<String, Class<?>> loaded = result.get(60, TimeUnit.SECONDS);
+                if (expected == null) {
+                    expected = loaded;
+                }
+                for (String name : names) {
+                    Assert.assertSame(name, expected.get(name), loaded.get(name));
+                }
+            }
+            Assert.assertSame(loader, expected.get("org.junit.Assert").getClassLoader());
+            Assert.assertNull(expected.get("org.junit.DoesNotExist0"));
+        } finally {
+            executor.shutdownNow();
+            loader.close();
+        }
+    }
+
+    public static class Base {
+    }
+
+    public static class Derived extends Base {
+    }
+
+    @Test
+    public void testClassesThatCannotBeDefinedAreNotRememberedAsMissing() throws Exception {
+        File dir = folder.newFolder("classes");
+        String path = Derived.class.getName().replace('.', '/') + ".class";
+        FileUtils.copyURLToFile(getClass().getResource("/" + path), new File(dir, path));
+        IndexedClassLoader loader = new IndexedClassLoader(Arrays.asList(dir), null, folder.newFolder("jars"));
+        try {
+            for (int i = 0; i < 2; i++) {
+                try {
+                    loader.loadClass(Derived.class.getName());
+                    Assert.fail("the super class is missing");
+                } catch (NoClassDefFoundError e) {
+                    Assert.assertTrue(e.getMessage(), e.getMessage().contains("Base"));
+                }
+            }
+        } finally {
+            loader.close();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.walkmod.gradle.providers;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.walkmod.conf.ConfigurationException;
+
+public class LazyClassLoaderTest {
+
+    @Test
+    public void testTheLoaderIsBuiltOnTheFirstLookup() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final File location = TestClassPath.getLocation(Assert.class);
+        LazyClassLoader loader = new LazyClassLoader(new Callable<ClassLoader>() {
+            @Override
+            public ClassLoader call() throws Exception {
+                calls.incrementAndGet();
+                return new IndexedClassLoader(Arrays.asList(location));
+            }
+        });
+        Assert.assertFalse(loader.isInitialized());
+        Assert.assertEquals(0, calls.get());
+
+        Class<?> type = loader.loadClass("org.junit.Assert");
+        Assert.assertSame(loader.getDelegate(), type.getClassLoader());
+        Assert.assertNotNull(loader.getResource("org/junit/Test.class"));
+        Assert.assertTrue(loader.isInitialized());
+        Assert.assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testErrorsAreKept() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        LazyClassLoader loader = new LazyClassLoader(new Callable<ClassLoader>() {
+            @Override
+            public ClassLoader call() throws Exception {
+                calls.incrementAndGet();
+                throw new ConfigurationException("Error compiling the project");
+            }
+        });
+        for (int i = 0; i < 2; i++) {
+            try {
+                loader.loadClass("org.junit.Assert");
+                Assert.fail("The loader should not be built");
+            } catch (ConfigurationException e) {
+                Assert.assertEquals("Error compiling the project", e.getMessage());
+            }
+        }
+        Assert.assertEquals(1, calls.get());
+    }
+}
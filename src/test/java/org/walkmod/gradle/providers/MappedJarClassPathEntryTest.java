@@ -0,0 +1,151 @@
+package org.walkmod.gradle.providers;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedJarClassPathEntryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private void writeJar(File file, String content) throws Exception {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().putValue("Manifest-Version", "1.0");
+        manifest.getMainAttributes().putValue("Implementation-Title", "sample");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(file), manifest);
+        try {
+            os.putNextEntry(new ZipEntry("org/sample/"));
+            os.closeEntry();
+            os.putNextEntry(new ZipEntry("org/sample/Deflated.txt"));
+            os.write(content.getBytes("UTF-8"));
+            os.closeEntry();
+            byte[] bytes = "stored".getBytes("UTF-8");
+            ZipEntry stored = new ZipEntry("org/sample/stored/Stored.txt");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(bytes.length);
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            stored.setCrc(crc.getValue());
+            os.putNextEntry(stored);
+            os.write(bytes);
+            os.closeEntry();
+        } finally {
+            os.close();
+        }
+    }
+
+    @Test
+    public void testFilesAreReadThroughTheIndex() throws Exception {
+        File jar = folder.newFile("sample.jar");
+        writeJar(jar, "deflated deflated deflated");
+        File indexFile = new File(folder.getRoot(), "jars/sample.index");
+
+        MappedJarClassPathEntry entry = new MappedJarClassPathEntry(jar, indexFile);
+        try {
+            Assert.assertTrue(indexFile.isFile());
+            Assert.assertEquals(
+                    new HashSet<String>(Arrays.asList("META-INF", "org/sample", "org/sample/stored")),
+                    entry.getPackages());
+            Assert.assertNotNull(entry.getResource("org/sample/Deflated.txt"));
+            Assert.assertNull(entry.getResource("org/sample/Missing.txt"));
+            Assert.assertFalse(entry.isOpen());
+
+            Assert.assertEquals("deflated deflated deflated",
+                    new String(entry.getBytes("org/sample/Deflated.txt"), "UTF-8"));
+            Assert.assertEquals("stored", new String(entry.getBytes("org/sample/stored/Stored.txt"), "UTF-8"));
+            Assert.assertNull(entry.getBytes("org/sample/"));
+            Assert.assertEquals("sample", entry.getManifest().getMainAttributes().getValue("Implementation-Title"));
+            Assert.assertTrue(entry.isOpen());
+        } finally {
+            entry.close();
+        }
+    }
+
+    @Test
+    public void testIndexesAreRebuiltWhenTheJarChanges() throws Exception {
+        File jar = folder.newFile("sample.jar");
+        writeJar(jar, "first");
+        File indexFile = new File(folder.getRoot(), "jars/sample.index");
+        new MappedJarClassPathEntry(jar, indexFile).close();
+        long indexed = indexFile.lastModified();
+
+        MappedJarClassPathEntry entry = new MappedJarClassPathEntry(jar, indexFile);
+        entry.close();
+        Assert.assertEquals(indexed, indexFile.lastModified());
+
+        writeJar(jar, "second version");
+        jar.setLastModified(jar.lastModified() + 2000);
+        entry = new MappedJarClassPathEntry(jar, indexFile);
+        try {
+            Assert.assertEquals("second version", new String(entry.getBytes("org/sample/Deflated.txt"), "UTF-8"));
+        } finally {
+            entry.close();
+        }
+    }
+
+    @Test
+    public void testTruncatedIndexesAreRebuilt() throws Exception {
+        File jar = folder.newFile("sample.jar");
+        writeJar(jar, "deflated");
+        File indexFile = new File(folder.getRoot(), "jars/sample.index");
+        new MappedJarClassPathEntry(jar, indexFile).close();
+        long length = indexFile.length();
+        RandomAccessFile file = new RandomAccessFile(indexFile, "rw");
+        try {
+            file.setLength(length - 5);
+        } finally {
+            file.close();
+        }
+
+        MappedJarClassPathEntry entry = new MappedJarClassPathEntry(jar, indexFile);
+        try {
+            Assert.assertEquals(length, indexFile.length());
+            Assert.assertEquals("deflated", new String(entry.getBytes("org/sample/Deflated.txt"), "UTF-8"));
+        } finally {
+            entry.close();
+        }
+        Assert.assertEquals(1, indexFile.getParentFile().list().length);
+    }
+
+    @Test
+    public void testEveryFileOfAJarIsRead() throws Exception {
+        File jar = TestClassPath.getLocation(Assert.class);
+        MappedJarClassPathEntry entry = new MappedJarClassPathEntry(jar, new File(folder.getRoot(), "junit.index"));
+        JarFile jarFile = new JarFile(jar);
+        try {
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry jarEntry = entries.nextElement();
+                if (!jarEntry.isDirectory()) {
+                    InputStream is = jarFile.getInputStream(jarEntry);
+                    try {
+                        Assert.assertArrayEquals(jarEntry.getName(), IOUtils.toByteArray(is),
+                                entry.getBytes(jarEntry.getName()));
+                    } finally {
+                        is.close();
+                    }
+                }
+            }
+        } finally {
+            jarFile.close();
+            entry.close();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.walkmod.gradle.providers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParallelTasksTest {
+
+    @Test
+    public void testNestedTasksShareThePool() throws Exception {
+        final ParallelTasks parallelTasks = new ParallelTasks(2);
+        final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+        try {
+            List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+            for (int i = 0; i < 8; i++) {
+                final int module = i;
+                tasks.add(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        threads.add(Thread.currentThread());
+                        List<Callable<Integer>> subtasks = new ArrayList<Callable<Integer>>();
+                        for (int j = 0; j < 8; j++) {
+                            final int artifact = j;
+                            subtasks.add(new Callable<Integer>() {
+                                @Override
+                                public Integer call() throws Exception {
+                                    threads.add(Thread.currentThread());
+                                    Thread.sleep(1);
+                                    return artifact;
+                                }
+                            });
+                        }
+                        int sum = 0;
+                        for (Integer value : parallelTasks.invokeAll(subtasks)) {
+                            sum += value;
+                        }
+                        return module * 100 + sum;
+                    }
+                });
+            }
+            List<Integer> results = parallelTasks.invokeAll(tasks);
+            for (int i = 0; i < 8; i++) {
+                Assert.assertEquals(Integer.valueOf(i * 100 + 28), results.get(i));
+            }
+            // the two threads of the pool and the caller
+            Assert.assertTrue(threads.size() <= 3);
+        } finally {
+            parallelTasks.close();
+        }
+    }
+}
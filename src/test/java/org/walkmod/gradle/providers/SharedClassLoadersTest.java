@@ -0,0 +1,104 @@
+package org.walkmod.gradle.providers;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SharedClassLoadersTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testModulesShareTheLoaderOfTheirJars() throws Exception {
+        File jar = TestClassPath.getLocation(Assert.class);
+        File first = folder.newFolder("first");
+        File second = folder.newFolder("second");
+        File indexDir = folder.newFolder("jars");
+
+        ModuleClassLoader firstLoader = ModuleClassLoader.create(Arrays.asList(first, jar), indexDir);
+        ModuleClassLoader secondLoader = ModuleClassLoader.create(Arrays.asList(second, jar), indexDir);
+        ClassLoader shared = firstLoader.getParent();
+        try {
+            Assert.assertSame(shared, secondLoader.getParent());
+            Assert.assertEquals(2, SharedClassLoaders.getReferences(shared));
+            Class<?> type = firstLoader.loadClass("org.junit.Assert");
+            Assert.assertSame(shared, type.getClassLoader());
+            Assert.assertSame(type, secondLoader.loadClass("org.junit.Assert"));
+        } finally {
+            firstLoader.close();
+            firstLoader.close();
+            Assert.assertEquals(1, SharedClassLoaders.getReferences(shared));
+            secondLoader.close();
+        }
+        Assert.assertEquals(0, SharedClassLoaders.getReferences(shared));
+    }
+
+    @Test
+    public void testModulesWithMoreJarsOnlyLoadTheMissingOnes() throws Exception {
+        File jar = TestClassPath.getLocation(Assert.class);
+        File other = TestClassPath.getLocation(FileUtils.class);
+        File indexDir = folder.newFolder("jars");
+
+        ModuleClassLoader firstLoader = ModuleClassLoader.create(Arrays.asList(jar), indexDir);
+        ModuleClassLoader secondLoader = ModuleClassLoader.create(Arrays.asList(other, jar), indexDir);
+        ClassLoader layer = firstLoader.getParent();
+        ClassLoader shared = secondLoader.getParent();
+        try {
+            Assert.assertNotSame(layer, shared);
+            Assert.assertSame(layer, shared.getParent());
+            Assert.assertEquals(2, SharedClassLoaders.getReferences(layer));
+            Assert.assertSame(firstLoader.loadClass("org.junit.Assert"), secondLoader.loadClass("org.junit.Assert"));
+            Assert.assertSame(shared, secondLoader.loadClass(FileUtils.class.getName()).getClassLoader());
+        } finally {
+            firstLoader.close();
+            Assert.assertEquals(1, SharedClassLoaders.getReferences(layer));
+            secondLoader.close();
+        }
+        Assert.assertEquals(0, SharedClassLoaders.getReferences(layer));
+        Assert.assertEquals(0, SharedClassLoaders.size());
+    }
+
+    @Test
+    public void testModulesWithFewerJarsAreNotShared() throws Exception {
+        File jar = TestClassPath.getLocation(Assert.class);
+        File other = TestClassPath.getLocation(FileUtils.class);
+        File indexDir = folder.newFolder("jars");
+
+        ModuleClassLoader firstLoader = ModuleClassLoader.create(Arrays.asList(other, jar), indexDir);
+        ModuleClassLoader secondLoader = ModuleClassLoader.create(Arrays.asList(jar), indexDir);
+        try {
+            Assert.assertNotSame(firstLoader.getParent(), secondLoader.getParent());
+            Assert.assertNotSame(firstLoader.getParent(), secondLoader.getParent().getParent());
+        } finally {
+            firstLoader.close();
+            secondLoader.close();
+        }
+    }
+
+    @Test
+    public void testCollectedModulesReleaseTheirSharedLoader() throws Exception {
+        File jar = TestClassPath.getLocation(Assert.class);
+        File indexDir = folder.newFolder("jars");
+
+        ModuleClassLoader firstLoader = ModuleClassLoader.create(Arrays.asList(jar), indexDir);
+        ClassLoader shared = firstLoader.getParent();
+        // what the garbage collector does once the loader is no longer referenced
+        firstLoader.reference.enqueue();
+        Assert.assertEquals(1, SharedClassLoaders.getReferences(shared));
+
+        ModuleClassLoader secondLoader = ModuleClassLoader.create(Arrays.asList(jar), indexDir);
+        try {
+            Assert.assertNotSame(shared, secondLoader.getParent());
+            Assert.assertEquals(0, SharedClassLoaders.getReferences(shared));
+        } finally {
+            secondLoader.close();
+        }
+        Assert.assertEquals(0, SharedClassLoaders.size());
+    }
+}
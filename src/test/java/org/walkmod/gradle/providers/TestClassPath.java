@@ -0,0 +1,19 @@
+package org.walkmod.gradle.providers;
+
+import java.io.File;
+
+/**
+ * Locates the jars and directories of the test classpath.
+ */
+final class TestClassPath {
+
+    private TestClassPath() {
+    }
+
+    /**
+     * Returns the jar or directory that the class was loaded from.
+     */
+    static File getLocation(Class<?> type) throws Exception {
+        return new File(type.getProtectionDomain().getCodeSource().getLocation().toURI());
+    }
+}